@@ -0,0 +1,150 @@
+package request;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The old String parser against {@link HttpRequestDecoder} on what the engine does per request:
+ * decode the head, then look up the few headers routing and auth need. Run with
+ * {@code mvn -P jmh test-compile exec:exec}; add {@code -prof gc} through -Djmh.args to compare
+ * bytes allocated per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    // a browser's GET with cookies, and a deposit with a JSON body
+    @Param({"list", "deposit"})
+    public String shape;
+
+    private String text;
+    private ByteBuffer bytes;
+    private HttpRequestDecoder decoder;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        if (shape.equals("list")) {
+            sb.append("GET /transactions?limit=20 HTTP/1.1\r\n");
+        } else {
+            sb.append("POST /deposit HTTP/1.1\r\n");
+        }
+        sb.append("Host: localhost:1299\r\n")
+                .append("User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101\r\n")
+                .append("Accept: application/json, text/plain, */*\r\n")
+                .append("Accept-Language: en-US,en;q=0.5\r\n")
+                .append("Accept-Encoding: gzip, deflate, br\r\n")
+                .append("Origin: http://localhost:3000\r\n")
+                .append("Referer: http://localhost:3000/home\r\n")
+                .append("Cookie: theme=dark; auth=3f8e2c1a9b7d4e6f0a1b2c3d4e5f6a7b\r\n")
+                .append("Connection: keep-alive\r\n");
+        String body = "";
+        if (shape.equals("deposit")) {
+            body = "{\"accountId\":\"6650f1c2a9e4b3d2c1f0e9d8\",\"amount\":125.50}";
+            sb.append("Content-Type: application/json\r\n")
+                    .append("Content-Length: ").append(body.length()).append("\r\n");
+        }
+        text = sb.append("\r\n").append(body).toString();
+        bytes = ByteBuffer.allocateDirect(text.length());
+        bytes.put(text.getBytes(StandardCharsets.ISO_8859_1)).flip();
+        decoder = new HttpRequestDecoder(16 * 1024);
+    }
+
+    @Benchmark
+    public void legacyStringParser(Blackhole bh) {
+        // the engine used to decode the buffer to a String first
+        String head = StandardCharsets.ISO_8859_1.decode(bytes.duplicate()).toString();
+        ParsedRequest req = LegacyParser.parse(head);
+        read(req, bh);
+    }
+
+    @Benchmark
+    public void byteDecoder(Blackhole bh) {
+        ByteBuffer in = bytes.duplicate();
+        HttpRequestDecoder.Head head = decoder.decodeHead(in);
+        int length = (int) head.contentLength();
+        bh.consume(decoder.decodeBody(in, length));
+        read(head.toRequest(), bh);
+    }
+
+    private static void read(ParsedRequest req, Blackhole bh) {
+        bh.consume(req.getPath());
+        bh.consume(req.getHeaderValue("Connection"));
+        bh.consume(req.getHeaderValue("Origin"));
+        bh.consume(req.getHeaderValue("Accept-Encoding"));
+        bh.consume(req.getCookieValue("auth"));
+        bh.consume(req.getQueryParam("limit"));
+    }
+
+    // CustomParser.parse as it was before the decoder (less its debug println)
+    static final class LegacyParser {
+
+        static ParsedRequest parse(String request) {
+            String[] lines = request.split("(\r\n|\r|\n)");
+            String requestLine = lines[0];
+            String[] requestParts = requestLine.split(" ");
+            var result = new ParsedRequest();
+            result.setMethod(requestParts[0]);
+
+            var parts = requestParts[1].split("\\?");
+            result.setPath(parts[0]);
+
+            if (parts.length == 2) {
+                String[] queryParts = parts[1].split("&");
+                for (int i = 0; i < queryParts.length; i++) {
+                    String[] pair = queryParts[i].split("=");
+                    result.setQueryParam(pair[0], pair[1]);
+                }
+            }
+
+            String body = "";
+            boolean emptyLine = false;
+            for (String line : lines) {
+                if (line.contains(":") && !emptyLine) {
+                    String[] headerParts = line.split(":");
+                    String key = headerParts[0].trim();
+                    String value = headerParts[1].trim();
+                    result.setHeaderValue(key, value);
+
+                    if (key.equalsIgnoreCase("cookie")) {
+                        String[] cookieParts = value.split(";");
+                        for (String cookiePart : cookieParts) {
+                            String part = cookiePart.trim();
+                            if (part.isEmpty()) continue;
+                            String[] kv = part.split("=", 2);
+                            String cKey = kv[0].trim();
+                            String cVal = kv.length > 1 ? kv[1] : "";
+                            result.setCookieValue(cKey, cVal);
+                        }
+                    }
+                }
+                if (line.equals("")) {
+                    emptyLine = true;
+                }
+                if (emptyLine) {
+                    body += line;
+                }
+            }
+            result.setBody(body);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Runtime settings, looked up by dotted key (e.g. {@code server.port}). The first of these
+ * that has a non-blank value wins:
+ * <ol>
+ *   <li>a system property with the key itself ({@code -Dserver.port=8080})</li>
+ *   <li>an environment variable named after it ({@code SERVER_PORT=8080})</li>
+ *   <li>the properties file named by {@code -Dapp.config} / {@code APP_CONFIG}, or
+ *       {@code app.properties} in the working directory if there is one</li>
+ *   <li>the default passed by the caller</li>
+ * </ol>
+ * Every key read is remembered with its value and source for {@link #describe()}, so the
+ * startup log shows the configuration actually in effect. Malformed values fail fast with
+ * the key and where the value came from.
+ */
+public final class AppConfig {
+
+    public static final String FILE_PROPERTY = "app.config";
+    private static final String DEFAULT_FILE = "app.properties";
+
+    private record Entry(String value, String source) {
+    }
+
+    private static volatile AppConfig instance;
+
+    private final Properties file;
+    private final String fileName;
+    private final Map<String, String> env;
+    private final Properties system;
+    private final Map<String, Entry> effective = new ConcurrentSkipListMap<>();
+
+    public AppConfig(Properties file, String fileName, Map<String, String> env,
+                     Properties system) {
+        this.file = file;
+        this.fileName = fileName;
+        this.env = env;
+        this.system = system;
+    }
+
+    /** The process-wide configuration, loaded on first use. */
+    public static AppConfig get() {
+        AppConfig config = instance;
+        if (config == null) {
+            synchronized (AppConfig.class) {
+                config = instance;
+                if (config == null) {
+                    config = load();
+                    instance = config;
+                }
+            }
+        }
+        return config;
+    }
+
+    private static AppConfig load() {
+        String named = System.getProperty(FILE_PROPERTY, System.getenv(envName(FILE_PROPERTY)));
+        Path path = named != null && !named.isBlank() ? Path.of(named.trim())
+                : Path.of(DEFAULT_FILE);
+        Properties props = new Properties();
+        String fileName = null;
+        if (Files.isRegularFile(path)) {
+            try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                props.load(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read config file " + path, e);
+            }
+            fileName = path.toString();
+        } else if (named != null && !named.isBlank()) {
+            // asked for explicitly, so a typo should not silently fall back to defaults
+            throw new IllegalStateException("Config file not found: " + path);
+        }
+        return new AppConfig(props, fileName, System.getenv(), System.getProperties());
+    }
+
+    /** server.port -> SERVER_PORT */
+    public static String envName(String key) {
+        return key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+
+    public String getString(String key, String defaultValue) {
+        Entry e = lookup(key);
+        if (e == null) {
+            e = new Entry(defaultValue, "default");
+        }
+        effective.put(key, e);
+        return e.value;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        return getLong(key, defaultValue, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private long getLong(String key, long defaultValue, long min, long max) {
+        Entry e = lookup(key);
+        if (e == null) {
+            effective.put(key, new Entry(String.valueOf(defaultValue), "default"));
+            return defaultValue;
+        }
+        effective.put(key, e);
+        try {
+            long v = Long.parseLong(e.value);
+            if (v < min || v > max) {
+                throw new NumberFormatException();
+            }
+            return v;
+        } catch (NumberFormatException ex) {
+            throw invalid(key, e, "a whole number");
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        Entry e = lookup(key);
+        if (e == null) {
+            effective.put(key, new Entry(String.valueOf(defaultValue), "default"));
+            return defaultValue;
+        }
+        effective.put(key, e);
+        if (e.value.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (e.value.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw invalid(key, e, "true or false");
+    }
+
+    /** Comma-separated list; blank items are dropped. */
+    public List<String> getList(String key, List<String> defaultValue) {
+        String raw = getString(key, String.join(",", defaultValue));
+        List<String> out = new ArrayList<>();
+        for (String item : raw.split(",")) {
+            if (!item.isBlank()) {
+                out.add(item.trim());
+            }
+        }
+        return List.copyOf(out);
+    }
+
+    /** One line per key read so far: value and where it came from, secrets masked. */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        effective.forEach((key, e) -> sb.append("  ").append(key).append(" = ")
+                .append(mask(key, e.value)).append("  (").append(e.source).append(")\n"));
+        return sb.toString();
+    }
+
+    private Entry lookup(String key) {
+        String v = system.getProperty(key);
+        if (v != null && !v.isBlank()) {
+            return new Entry(v.trim(), "-D" + key);
+        }
+        String envKey = envName(key);
+        v = env.get(envKey);
+        if (v != null && !v.isBlank()) {
+            return new Entry(v.trim(), "env " + envKey);
+        }
+        v = file.getProperty(key);
+        if (v != null && !v.isBlank()) {
+            return new Entry(v.trim(), fileName);
+        }
+        return null;
+    }
+
+    private static IllegalArgumentException invalid(String key, Entry e, String expected) {
+        return new IllegalArgumentException("Invalid value for " + key + " from " + e.source
+                + ": '" + e.value + "' (expected " + expected + ")");
+    }
+
+    static String mask(String key, String value) {
+        if (value == null) {
+            return "(unset)";
+        }
+        String k = key.toLowerCase(Locale.ROOT);
+        if (k.contains("password") || k.contains("secret") || k.contains("token")) {
+            return "****";
+        }
+        // user:password@ in connection strings
+        return value.replaceAll("(://[^/:@]+):[^/@]*@", "$1:****@");
+    }
+}
@@ -26,7 +26,7 @@ public class AccountDao extends BaseDao<AccountDto> {
 
     @Override
     public List<AccountDto> query(Document filter) {
-        return collection.find(filter)
+        return find(filter)
                 .into(new ArrayList<>())
                 .stream()
                 .map(AccountDto::fromDocument)
@@ -35,6 +35,6 @@ public class AccountDao extends BaseDao<AccountDto> {
 
     // Added explicit replace used by handlers
     public void replace(ObjectId id, AccountDto dto) {
-        collection.replaceOne(new Document("_id", id), dto.toDocument());
+        forWrite().replaceOne(new Document("_id", id), dto.toDocument());
     }
 }
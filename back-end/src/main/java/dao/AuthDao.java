@@ -32,7 +32,7 @@ public class AuthDao extends BaseDao<AuthDto> {
 
     @Override
     public List<AuthDto> query(Document filter) {
-        return collection.find(filter)
+        return find(filter)
                 .into(new ArrayList<>())
                 .stream()
                 .map(AuthDto::fromDocument)
@@ -1,9 +1,12 @@
 package dao;
 
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import dto.BaseDto;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
 public abstract class BaseDao<T extends BaseDto> {
 
@@ -15,11 +18,25 @@ public abstract class BaseDao<T extends BaseDto> {
 
     public abstract List<T> query(Document filter);
 
+    // Reads run under the request's Deadline: refused once it has passed, else capped on the
+    // server with maxTimeMS
+    protected FindIterable<Document> find(Bson filter) {
+        long maxMillis = Deadline.beforeRead();
+        FindIterable<Document> found = collection.find(filter);
+        return maxMillis > 0 ? found.maxTime(maxMillis, TimeUnit.MILLISECONDS) : found;
+    }
+
+    // Writes always go through; from the first one on, the request runs to completion
+    protected MongoCollection<Document> forWrite() {
+        Deadline.beforeWrite();
+        return collection;
+    }
+
     public void put(T dto) {
         if (dto.getUniqueId() == null) {
-            collection.insertOne(dto.toDocument());
+            forWrite().insertOne(dto.toDocument());
         } else {
-            collection.replaceOne(dto.getObjectId(), dto.toDocument());
+            forWrite().replaceOne(dto.getObjectId(), dto.toDocument());
         }
     }
 }
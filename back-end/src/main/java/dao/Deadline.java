@@ -0,0 +1,135 @@
+package dao;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long the current request may still spend in Mongo. The pipeline starts one per request
+ * and binds it to the thread running the handler; DAO reads then carry the time left as
+ * {@code maxTimeMS}, and are refused outright once it has run out or the client has gone
+ * (see {@link #cancel()}), so an abandoned request stops queueing work on the database.
+ *
+ * <p>The first write disarms it: a handler that has started changing balances finishes its
+ * remaining reads and writes rather than stopping half way through a transfer.
+ *
+ * <p>An entry of a composite request (/batch) runs under a {@link #part()}: the batch's time
+ * and cancellation, but its own first write, so each entry knows whether it changed data.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos;
+    private volatile long budgetNanos = Long.MAX_VALUE;
+    private volatile boolean cancelled;
+    private volatile boolean committed;
+    private volatile Runnable onFirstWrite;
+    private final Deadline parent;
+
+    public Deadline(long startNanos) {
+        this(startNanos, null);
+    }
+
+    private Deadline(long startNanos, Deadline parent) {
+        this.startNanos = startNanos;
+        this.parent = parent;
+    }
+
+    /** A deadline for one part of this request; a write in it commits this one too. */
+    public Deadline part() {
+        Deadline part = new Deadline(startNanos, this);
+        part.budgetNanos = budgetNanos;
+        return part;
+    }
+
+    /** Sets the budget, counted from when the request arrived; 0 or less means none. */
+    public void limit(long millis) {
+        budgetNanos = millis > 0 ? TimeUnit.MILLISECONDS.toNanos(millis) : Long.MAX_VALUE;
+    }
+
+    /** The client is gone; whatever the request still has to read is wasted. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled || parent != null && parent.isCancelled();
+    }
+
+    /** Whether the request has started writing, i.e. may have changed data. */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Runs once, on the request's thread, just before its first write. If it throws, the write
+     * does not happen and the request is not committed.
+     */
+    public void onFirstWrite(Runnable hook) {
+        this.onFirstWrite = hook;
+    }
+
+    public boolean isExpired() {
+        return isCancelled() || System.nanoTime() - startNanos >= budgetNanos;
+    }
+
+    public long remainingMillis() {
+        if (budgetNanos == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        long left = budgetNanos - (System.nanoTime() - startNanos);
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(left));
+    }
+
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    // null unbinds; threads are pooled, so every bind needs an unbind
+    public static void bind(Deadline deadline) {
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+    }
+
+    /**
+     * Milliseconds the next read may take on the server, 0 when it is unbounded.
+     *
+     * @throws DeadlineExceededException if the request has run out of time or was cancelled
+     */
+    static long beforeRead() {
+        Deadline d = CURRENT.get();
+        if (d == null || d.committed || d.parent != null && d.parent.committed) {
+            return 0;
+        }
+        if (d.isExpired()) {
+            throw new DeadlineExceededException(d.isCancelled());
+        }
+        long left = d.remainingMillis();
+        return left == Long.MAX_VALUE ? 0 : Math.max(1, left);
+    }
+
+    // Called by the DAOs before each write
+    public static void beforeWrite() {
+        Deadline d = CURRENT.get();
+        if (d != null) {
+            d.commit();
+        }
+    }
+
+    private void commit() {
+        if (committed) {
+            return;
+        }
+        Runnable hook = onFirstWrite;
+        if (hook != null) {
+            hook.run();
+            onFirstWrite = null;
+        }
+        committed = true;
+        if (parent != null) {
+            parent.commit();
+        }
+    }
+}
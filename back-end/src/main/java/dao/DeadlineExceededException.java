@@ -0,0 +1,18 @@
+package dao;
+
+/** A read refused because its request ran out of time, or its client disconnected. */
+public class DeadlineExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean cancelled;
+
+    public DeadlineExceededException(boolean cancelled) {
+        super(cancelled ? "Client disconnected" : "Request deadline exceeded");
+        this.cancelled = cancelled;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
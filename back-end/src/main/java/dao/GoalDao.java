@@ -23,7 +23,7 @@ public class GoalDao extends BaseDao<GoalDto> {
 
     @Override
     public List<GoalDto> query(Document filter) {
-        return collection.find(filter)
+        return find(filter)
                 .into(new ArrayList<>())
                 .stream()
                 .map(GoalDto::fromDocument)
@@ -32,27 +32,24 @@ public class GoalDao extends BaseDao<GoalDto> {
 
     public GoalDto byIdForUser(ObjectId id, String user) {
         Document filter = new Document("_id", id).append("userName", user);
-        Document doc = collection.find(filter).first();
+        Document doc = find(filter).first();
         return doc == null ? null : GoalDto.fromDocument(doc);
     }
 
     public void replace(ObjectId id, GoalDto goal) {
-        collection.replaceOne(new Document("_id", id), goal.toDocument());
+        forWrite().replaceOne(new Document("_id", id), goal.toDocument());
     }
 
     public GoalDto delete(Document filter) {
-        Document doc = collection.find(filter).first();
+        Document doc = find(filter).first();
         if (doc == null) return null;
-        collection.deleteOne(filter);
+        forWrite().deleteOne(filter);
         return GoalDto.fromDocument(doc);
     }
 
-    // Added accessor for raw collection (needed by GoalDaoExt helper)
-    public MongoCollection<Document> col() { return collection; }
-
     // New method: find goals by userName
     public List<GoalDto> findByUser(String userName) {
-        return collection.find(new Document("userName", userName))
+        return find(new Document("userName", userName))
                 .into(new ArrayList<>())
                 .stream()
                 .map(GoalDto::fromDocument)
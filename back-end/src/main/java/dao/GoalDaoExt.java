@@ -6,7 +6,7 @@ import org.bson.types.ObjectId;
 
 public class GoalDaoExt {
     public static GoalDto byIdForUser(ObjectId id, String userName) {
-        var doc = GoalDao.getInstance().col().find(
+        var doc = GoalDao.getInstance().find(
                 Filters.and(Filters.eq("_id", id), Filters.eq("userName", userName))
         ).first();
         return doc == null ? null : GoalDto.fromDocument(doc);
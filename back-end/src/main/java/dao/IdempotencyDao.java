@@ -0,0 +1,106 @@
+package dao;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcomes of money requests sent with an Idempotency-Key, one document per user and key:
+ * {@code {_id: "user:key", fingerprint, state: "running"|"done"|"failed", wrote, status, body,
+ * createdAt}}. A TTL index on createdAt removes them once clients can no longer be retrying.
+ * {@code wrote} is set before the request's first write, so a reservation left "running" by a
+ * dead server is only taken over when it cannot have moved money.
+ *
+ * <p>The unique _id is what makes a key single-use across server processes: only one insert
+ * of a reservation can succeed.
+ */
+public class IdempotencyDao {
+
+    public static final String RUNNING = "running";
+    public static final String DONE = "done";
+    // the request failed after it had started writing; never run again
+    public static final String FAILED = "failed";
+
+    private static IdempotencyDao instance;
+
+    private final MongoCollection<Document> collection;
+
+    private IdempotencyDao(MongoCollection<Document> collection) {
+        this.collection = collection;
+    }
+
+    public static IdempotencyDao getInstance() {
+        if (instance != null) {
+            return instance;
+        }
+        instance = new IdempotencyDao(MongoConnection.getCollection("IdempotencyKeys"));
+        return instance;
+    }
+
+    public static IdempotencyDao getInstance(MongoCollection<Document> collection) {
+        instance = new IdempotencyDao(collection);
+        return instance;
+    }
+
+    // createIndex is a no-op when the same index exists; a different TTL fails and is kept
+    public void ensureTtlIndex(long ttlSeconds) {
+        collection.createIndex(Indexes.ascending("createdAt"),
+                new IndexOptions().expireAfter(ttlSeconds, TimeUnit.SECONDS));
+    }
+
+    public Document find(String id) {
+        return collection.find(Filters.eq("_id", id)).first();
+    }
+
+    /** Claims the key for this request; false if another request already holds it. */
+    public boolean reserve(String id, String fingerprint) {
+        try {
+            collection.insertOne(new Document("_id", id).append("fingerprint", fingerprint)
+                    .append("state", RUNNING).append("createdAt", new Date()));
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Takes over a reservation whose request never finished (its server died), once it is
+     * older than any request could still be running and only if it never started writing.
+     */
+    public boolean takeOver(String id, String fingerprint, long olderThanMillis) {
+        Date cutoff = new Date(System.currentTimeMillis() - olderThanMillis);
+        return collection.updateOne(
+                Filters.and(Filters.eq("_id", id), Filters.eq("state", RUNNING),
+                        Filters.ne("wrote", true), Filters.lt("createdAt", cutoff)),
+                Updates.combine(Updates.set("fingerprint", fingerprint),
+                        Updates.set("createdAt", new Date()))).getModifiedCount() == 1;
+    }
+
+    // Marks the reservation before the request's first write; throwing stops that write
+    public void markWriting(String id) {
+        collection.updateOne(Filters.eq("_id", id), Updates.set("wrote", true));
+    }
+
+    // state is DONE, or FAILED for a request that broke off after it had written
+    public void complete(String id, String state, String status, String body) {
+        collection.updateOne(Filters.eq("_id", id), Updates.combine(Updates.set("state", state),
+                Updates.set("status", status), Updates.set("body", body)));
+    }
+
+    // The request failed before writing anything; the client may retry with the same key
+    public void release(String id) {
+        collection.deleteOne(Filters.and(Filters.eq("_id", id), Filters.eq("state", RUNNING),
+                Filters.ne("wrote", true)));
+    }
+}
@@ -1,16 +1,46 @@
 package dao;
 
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import config.AppConfig;
 import org.bson.Document;
 
+import java.util.concurrent.TimeUnit;
+
 public class MongoConnection {
 
-    private static final String mongoUrl = System.getenv().getOrDefault("MONGO_URL", "mongodb://localhost:27017");
-    private static final String mongoDb  = System.getenv().getOrDefault("MONGO_DB",  "Homework2");
-    private static final MongoClient mongoClient = MongoClients.create(mongoUrl);
+    private static final AppConfig config = AppConfig.get();
+    private static final String mongoUrl =
+            config.getString("mongo.url", "mongodb://localhost:27017");
+    private static final String mongoDb  = config.getString("mongo.db",  "Homework2");
+    private static final MongoClient mongoClient = MongoClients.create(settings());
+
+    // Pool and timeout knobs; options written into mongo.url (e.g. ?maxPoolSize=) take precedence
+    private static MongoClientSettings settings() {
+        return MongoClientSettings.builder()
+                .applyToConnectionPoolSettings(pool -> pool
+                        .maxSize(config.getInt("mongo.pool.max", 100))
+                        .minSize(config.getInt("mongo.pool.min", 0))
+                        .maxWaitTime(config.getLong("mongo.pool.max.wait.ms", 120_000),
+                                TimeUnit.MILLISECONDS)
+                        .maxConnectionIdleTime(config.getLong("mongo.pool.max.idle.ms", 0),
+                                TimeUnit.MILLISECONDS))
+                .applyToSocketSettings(socket -> socket
+                        .connectTimeout(config.getInt("mongo.connect.timeout.ms", 10_000),
+                                TimeUnit.MILLISECONDS)
+                        .readTimeout(config.getInt("mongo.read.timeout.ms", 0),
+                                TimeUnit.MILLISECONDS))
+                .applyToClusterSettings(cluster -> cluster
+                        .serverSelectionTimeout(
+                                config.getLong("mongo.server.selection.timeout.ms", 30_000),
+                                TimeUnit.MILLISECONDS))
+                .applyConnectionString(new ConnectionString(mongoUrl))
+                .build();
+    }
 
     public static MongoDatabase getDb() {
         return mongoClient.getDatabase(mongoDb);
@@ -20,4 +50,9 @@ public class MongoConnection {
         return getDb().getCollection(collectionName);
     }
 
+    // Called once on shutdown, after in-flight requests have finished
+    public static void close() {
+        mongoClient.close();
+    }
+
 }
@@ -24,7 +24,7 @@ public class SavingsGoalDao extends BaseDao<SavingsGoalDto> {
 
     @Override
     public List<SavingsGoalDto> query(Document filter) {
-        return collection.find(filter)
+        return find(filter)
                 .into(new ArrayList<>())
                 .stream()
                 .map(SavingsGoalDto::fromDocument)
@@ -32,13 +32,13 @@ public class SavingsGoalDao extends BaseDao<SavingsGoalDto> {
     }
 
     public Document getById(String id) {
-        return collection.find(new Document("_id", new ObjectId(id))).first();
+        return find(new Document("_id", new ObjectId(id))).first();
     }
 
     public void updateProgress(String id, double newAmount) {
         Document filter = new Document("_id", new ObjectId(id));
         Document update = new Document("$set", new Document("currentAmount", newAmount));
-        collection.updateOne(filter, update);
+        forWrite().updateOne(filter, update);
     }
 
 }
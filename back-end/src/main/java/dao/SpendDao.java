@@ -16,7 +16,7 @@ public class SpendDao extends BaseDao<SpendDto> {
 
     @Override
     public List<SpendDto> query(Document filter) {
-        return collection.find(filter)
+        return find(filter)
                 .into(new ArrayList<>())
                 .stream()
                 .map(SpendDto::fromDocument)
@@ -30,7 +30,7 @@ public class SpendDao extends BaseDao<SpendDto> {
                 Filters.gte("dateMillis", start),
                 Filters.lt("dateMillis", end)
         );
-        return collection.find(f)
+        return find(f)
                 .into(new ArrayList<>())
                 .stream()
                 .map(SpendDto::fromDocument)
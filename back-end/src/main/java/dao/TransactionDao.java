@@ -4,6 +4,7 @@ import com.mongodb.client.MongoCollection;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import dto.TransactionDto;
@@ -32,11 +33,16 @@ public class TransactionDao extends BaseDao<TransactionDto> {
     }
 
     public List<TransactionDto> query(Document filter) {
-        return collection.find(filter)
+        return find(filter)
                 .into(new ArrayList<>())
                 .stream()
                 .map(TransactionDto::fromDocument)
                 .collect(Collectors.toList());
     }
 
+    // Walks the cursor one document at a time instead of collecting every match into a list
+    public void forEach(Document filter, Consumer<TransactionDto> action) {
+        find(filter).forEach(doc -> action.accept(TransactionDto.fromDocument(doc)));
+    }
+
 }
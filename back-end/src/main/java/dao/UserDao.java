@@ -31,7 +31,7 @@ public class UserDao extends BaseDao<UserDto> {
     }
 
     public List<UserDto> query(Document filter) {
-        return collection.find(filter)
+        return find(filter)
                 .into(new ArrayList<>())
                 .stream()
                 .map(UserDto::fromDocument)
@@ -11,21 +11,29 @@ public class AuthFilter {
         public String userName;
     }
 
+    private static final String ATTRIBUTE = "auth.result";
+
+    // The pipeline checks auth before the handler runs; the handler's own call reuses that
     public static AuthResult doFilter(ParsedRequest parsedRequest) {
+        if (parsedRequest.getAttribute(ATTRIBUTE) instanceof AuthResult cached) {
+            return cached;
+        }
+        AuthResult result = lookup(parsedRequest);
+        parsedRequest.setAttribute(ATTRIBUTE, result);
+        return result;
+    }
+
+    // Sub-requests of a batch run as the batch's user without looking the session up again
+    public static void share(ParsedRequest from, ParsedRequest to) {
+        to.setAttribute(ATTRIBUTE, doFilter(from));
+    }
+
+    private static AuthResult lookup(ParsedRequest parsedRequest) {
         AuthDao authDao = AuthDao.getInstance();
         var result = new AuthResult();
 
-        // Replaced auth cookie extraction with user-provided snippet
+        // parsed from the Cookie header once per request
         String authHash = parsedRequest.getCookieValue("auth");
-        if (authHash == null || authHash.isBlank()) {
-            String cookieHeader = parsedRequest.getHeaderValue("Cookie");
-            if (cookieHeader != null) {
-                for (String part : cookieHeader.split(";")) {
-                    String[] kv = part.trim().split("=", 2);
-                    if (kv.length == 2 && kv[0].trim().equals("auth")) { authHash = kv[1]; break; }
-                }
-            }
-        }
         if (authHash == null || authHash.isBlank()) {
             result.isLoggedIn = false;
             return result;
@@ -0,0 +1,232 @@
+package handler;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.mongodb.MongoExecutionTimeoutException;
+import config.AppConfig;
+import dao.Deadline;
+import dao.DeadlineExceededException;
+import request.ParsedRequest;
+import response.HttpResponseBuilder;
+import response.RestApiAppResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * POST /batch - several API calls in one round trip, e.g. the Home page's accounts, goals and
+ * transactions.
+ *
+ * <p>Body: {@code {"requests":[{"method":"GET","path":"/accounts/list"},
+ * {"method":"POST","path":"/deposit","body":{...}}]}} (or just the array). The session is
+ * looked up once for the whole batch. Consecutive reads run in parallel; a write waits for
+ * everything listed before it and finishes before anything after it starts, so a batch gives
+ * the same results as the same calls made one by one. Each entry gets its own status and
+ * body, in request order; one failing entry does not fail the others.
+ *
+ * <p>Each entry is charged to its own route class's rate limit, as if it had been sent alone,
+ * so a batch is no way around the MONEY or READ budgets. A money entry may carry an
+ * {@code "idempotencyKey"}, which works like the Idempotency-Key header of a request of its
+ * own: retrying the batch replays that entry instead of moving the money again.
+ */
+public class BatchHandler implements BaseHandler {
+
+    /** Runs one entry under the limits it would have had as a request of its own. */
+    public interface EntryGate {
+        HttpResponseBuilder run(ParsedRequest sub, RouteClass routeClass,
+                                Supplier<HttpResponseBuilder> handler);
+    }
+
+    /** Request attribute holding the pipeline's {@link EntryGate}; absent runs entries as is. */
+    public static final String GATE = "batch.gate";
+
+    // what the pipeline reads for the entry, as for a request of its own
+    private static final String IDEMPOTENCY_HEADER = "Idempotency-Key";
+
+    private static final int MAX_REQUESTS = AppConfig.get().getInt("batch.max.requests", 20);
+
+    // the batch's own worker waits on these; the Mongo pool bounds the real concurrency
+    private static final ExecutorService READS = Executors.newVirtualThreadPerTaskExecutor();
+
+    private record Entry(String method, String path, int status, String body) {
+    }
+
+    @Override
+    public HttpResponseBuilder handleRequest(ParsedRequest request) {
+        var auth = AuthFilter.doFilter(request);
+        if (!auth.isLoggedIn) return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
+
+        JsonElement json = request.getBodyAs(JsonElement.class);
+        JsonArray items = null;
+        if (json != null && json.isJsonArray()) {
+            items = json.getAsJsonArray();
+        } else if (json != null && json.isJsonObject()
+                && json.getAsJsonObject().get("requests") instanceof JsonArray array) {
+            items = array;
+        }
+        if (items == null || items.isEmpty()) {
+            return badRequest("Expected {\"requests\": [{\"method\", \"path\", \"body\"}, ...]}");
+        }
+        if (items.size() > MAX_REQUESTS) {
+            return badRequest("At most " + MAX_REQUESTS + " requests per batch");
+        }
+
+        List<ParsedRequest> subs = new ArrayList<>(items.size());
+        for (JsonElement item : items) {
+            if (!item.isJsonObject()
+                    || !(item.getAsJsonObject().get("path") instanceof JsonPrimitive path)
+                    || !path.getAsString().startsWith("/")) {
+                return badRequest("Every request needs a path starting with /");
+            }
+            subs.add(toRequest(request, item.getAsJsonObject()));
+        }
+
+        EntryGate gate = (EntryGate) request.getAttribute(GATE);
+        List<Entry> results = new ArrayList<>(subs.size());
+        List<Future<Entry>> reads = new ArrayList<>();
+        Deadline deadline = Deadline.current();
+        for (ParsedRequest sub : subs) {
+            if (isRead(sub)) {
+                // the whole batch shares one deadline
+                reads.add(READS.submit(() -> {
+                    Deadline.bind(deadline);
+                    try {
+                        return run(sub, gate);
+                    } finally {
+                        Deadline.bind(null);
+                    }
+                }));
+                continue;
+            }
+            // a write is a barrier: the reads before it see the data as it was
+            collect(reads, results);
+            // its own first write, so a failure is judged by what this entry changed
+            Deadline.bind(deadline == null ? null : deadline.part());
+            try {
+                results.add(run(sub, gate));
+            } finally {
+                Deadline.bind(deadline);
+            }
+        }
+        collect(reads, results);
+        return new HttpResponseBuilder().setStatus(StatusCodes.OK).setBody(render(results));
+    }
+
+    private static boolean isRead(ParsedRequest sub) {
+        String method = sub.getMethod();
+        return ("GET".equals(method) || "HEAD".equals(method))
+                && HandlerFactory.getRouteClass(sub.getPath()) == RouteClass.READ;
+    }
+
+    private static ParsedRequest toRequest(ParsedRequest batch, JsonObject item) {
+        var sub = new ParsedRequest();
+        String target = item.get("path").getAsString();
+        int q = target.indexOf('?');
+        sub.setPath(q < 0 ? target : target.substring(0, q));
+        if (q >= 0) {
+            sub.setRawQuery(target.substring(q + 1));
+        }
+        sub.setMethod(item.has("method") ? item.get("method").getAsString().toUpperCase() : "GET");
+        JsonElement body = item.get("body");
+        sub.setBody(body == null || body.isJsonNull() ? "" : GsonTool.GSON.toJson(body));
+        sub.setHeaderValue("Content-Type", "application/json");
+        if (item.get("idempotencyKey") instanceof JsonPrimitive key) {
+            sub.setHeaderValue(IDEMPOTENCY_HEADER, key.getAsString());
+        }
+        AuthFilter.share(batch, sub);
+        return sub;
+    }
+
+    // The body is rendered here, on the thread that ran the handler, so a streamed list does
+    // its reads now and not after the writes that follow it in the batch
+    private static Entry run(ParsedRequest sub, EntryGate gate) {
+        HttpResponseBuilder resp;
+        if (!HandlerFactory.isBatchable(sub.getPath())) {
+            resp = badRequest(sub.getPath() + " cannot be part of a batch");
+        } else {
+            try {
+                Supplier<HttpResponseBuilder> handler = () -> {
+                    HttpResponseBuilder r = HandlerFactory.getHandler(sub).handleRequest(sub);
+                    HandlerFactory.recordChange(sub, r);
+                    return r;
+                };
+                resp = gate == null ? handler.get()
+                        : gate.run(sub, HandlerFactory.getRouteClass(sub.getPath()), handler);
+                return new Entry(sub.getMethod(), sub.getPath(), resp.getStatusCode(),
+                        bodyJson(resp));
+            } catch (DeadlineExceededException | MongoExecutionTimeoutException e) {
+                throw e; // out of time is the whole batch's outcome (504), not one entry's
+            } catch (JsonParseException e) {
+                resp = badRequest("Malformed JSON body");
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                resp = new HttpResponseBuilder().setStatus(StatusCodes.SERVER_ERROR)
+                        .setBody(new RestApiAppResponse<>(false, "Internal server error"));
+            }
+        }
+        return new Entry(sub.getMethod(), sub.getPath(), resp.getStatusCode(), bodyJson(resp));
+    }
+
+    private static void collect(List<Future<Entry>> reads, List<Entry> results) {
+        for (Future<Entry> f : reads) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while running a batch", e);
+            }
+        }
+        reads.clear();
+    }
+
+    // Bodies are already JSON, so they are spliced in rather than parsed and re-encoded
+    private static String render(List<Entry> results) {
+        StringBuilder sb = new StringBuilder(256).append("{\"status\":true,\"data\":[");
+        for (int i = 0; i < results.size(); i++) {
+            Entry e = results.get(i);
+            sb.append(i == 0 ? "{" : ",{")
+                    .append("\"method\":").append(GsonTool.GSON.toJson(e.method))
+                    .append(",\"path\":").append(GsonTool.GSON.toJson(e.path))
+                    .append(",\"status\":").append(e.status)
+                    .append(",\"body\":").append(e.body).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static String bodyJson(HttpResponseBuilder resp) {
+        byte[] bytes = resp.serializeBody();
+        if (bytes.length == 0) {
+            return "null";
+        }
+        String body = new String(bytes, StandardCharsets.UTF_8);
+        if (resp.getBody() == null && !resp.isStreaming() && resp.getBodyString() != null) {
+            // a handler-written string; a few send plain text
+            try {
+                JsonParser.parseString(body);
+            } catch (JsonParseException e) {
+                return GsonTool.GSON.toJson(body);
+            }
+        }
+        return body;
+    }
+
+    private static HttpResponseBuilder badRequest(String message) {
+        return new HttpResponseBuilder().setStatus(StatusCodes.BAD_REQUEST)
+                .setBody(new RestApiAppResponse<>(false, message));
+    }
+}
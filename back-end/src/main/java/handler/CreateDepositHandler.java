@@ -20,7 +20,7 @@ public class CreateDepositHandler implements BaseHandler {
         var auth = AuthFilter.doFilter(request);
         if (!auth.isLoggedIn) return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
 
-        var json = GsonTool.GSON.fromJson(request.getBody(), com.google.gson.JsonObject.class);
+        var json = request.getBodyAs(com.google.gson.JsonObject.class);
         if (json == null) return new HttpResponseBuilder().setStatus(StatusCodes.BAD_REQUEST);
 
         if (!json.has("accountId") || !json.has("goalId") || !json.has("amount")) {
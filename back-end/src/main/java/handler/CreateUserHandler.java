@@ -1,5 +1,6 @@
 package handler;
 
+import config.AppConfig;
 import dao.AuthDao;
 import dao.UserDao;
 import dto.AuthDto;
@@ -16,7 +17,7 @@ public class CreateUserHandler implements BaseHandler {
 
     @Override
     public HttpResponseBuilder handleRequest(ParsedRequest request) {
-        UserDto userDto = GsonTool.GSON.fromJson(request.getBody(), dto.UserDto.class);
+        UserDto userDto = request.getBodyAs(dto.UserDto.class);
         if (userDto == null || userDto.getUserName() == null || userDto.getPassword() == null) {
             return new HttpResponseBuilder().setStatus("400 Bad Request")
                     .setBody(new RestApiAppResponse<>(false, "Missing username or password"));
@@ -41,7 +42,7 @@ public class CreateUserHandler implements BaseHandler {
         authDao.put(authDto);
 
         // Inline response object per request
-        boolean isProd = "production".equalsIgnoreCase(System.getenv("APP_ENV"));
+        boolean isProd = "production".equalsIgnoreCase(AppConfig.get().getString("app.env", ""));
         String flags = isProd
                 ? "Path=/; HttpOnly; SameSite=None; Secure"
                 : "Path=/; HttpOnly; SameSite=Lax";
@@ -21,8 +21,7 @@ public class FinancingHandler implements BaseHandler{
             return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
         }
 
-        TransactionDto transactionDto = GsonTool.GSON.fromJson(request.getBody(),
-                TransactionDto.class);
+        TransactionDto transactionDto = request.getBodyAs(TransactionDto.class);
         transactionDto.setTransactionType(TransactionType.Financing);
         TransactionDao transactionDao = TransactionDao.getInstance();
         HttpResponseBuilder res = new HttpResponseBuilder();
@@ -1,10 +1,10 @@
 package handler;
 
 import dao.TransactionDao;
+import dto.TransactionDto;
 import org.bson.Document;
 import request.ParsedRequest;
 import response.HttpResponseBuilder;
-import response.RestApiAppResponse;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -25,8 +25,18 @@ public class GetTransactionsHandler implements BaseHandler {
 
         var orFilter = new Document("$or", filterList);
 
-        var res = new RestApiAppResponse<>(true, transactionDao.query(orFilter), null);
-        return new HttpResponseBuilder().setStatus("200 OK").setBody(res);
+        // Same shape as RestApiAppResponse, but rows go out as the cursor produces them so
+        // long histories never sit in memory all at once
+        return new HttpResponseBuilder().setStatus("200 OK").setStreamingBody(writer -> {
+            writer.beginObject();
+            writer.name("status").value(true);
+            writer.name("data").beginArray();
+            transactionDao.forEach(orFilter,
+                    dto -> GsonTool.GSON.toJson(dto, TransactionDto.class, writer));
+            writer.endArray();
+            writer.name("properties").beginObject().endObject();
+            writer.endObject();
+        });
     }
 
 }
@@ -1,46 +1,168 @@
 package handler;
 
+import handler.RouteRegistry.Flag;
+import handler.accounts.CreateAccountHandler;
+import handler.accounts.ListAccountsHandler;
+import handler.accounts.ListAccountsWithAllocationsHandler;
+import handler.accounts.TransferBetweenAccountsHandler;
+import handler.goals.ContributeGoalHandler;
+import handler.goals.CreateGoalHandler;
+import handler.goals.DeleteGoalHandler;
+import handler.goals.ListGoalHandler;
+import handler.goals.TransferGoalsHandler;
+import handler.spend.LogSpendHandler;
 import request.ParsedRequest;
+import response.HttpResponseBuilder;
+import response.RestApiAppResponse;
 
 public class HandlerFactory {
-    // routes based on the path. Add your custom handlers here
+
+    private static final String GET = "GET";
+    private static final String POST = "POST";
+    private static final String PUT = "PUT";
+    private static final String DELETE = "DELETE";
+
+    private static final BaseHandler NOT_FOUND = new FallbackHandler();
+
+    // Built once; handlers are stateless singletons. Add your custom routes here
+    private static final RouteRegistry ROUTES = buildRoutes();
+
+    private static RouteRegistry buildRoutes() {
+        var whoAmI = new WhoAmIHandler();
+        var transactions = new TransactionsHandler();
+        var deposit = new CreateDepositHandler();
+        var withdraw = new WithdrawHandler();
+        var logout = new LogoutHandler();
+        var contributeGoal = new ContributeGoalHandler();
+        var deleteGoal = new DeleteGoalHandler();
+        var transferGoals = new TransferGoalsHandler();
+        var listWithAllocations = new ListAccountsWithAllocationsHandler();
+
+        return new RouteRegistry()
+                .add(POST, "/createUser", new CreateUserHandler(), RouteClass.AUTH, Flag.PUBLIC)
+                .add(POST, "/login", new LoginHandler(), RouteClass.AUTH, Flag.PUBLIC)
+                .add(POST, "/logout", logout, RouteClass.AUTH, Flag.PUBLIC)
+                .add(POST, "/auth/logout", logout, RouteClass.AUTH, Flag.PUBLIC)
+
+                .add(GET, "/auth/whoami", whoAmI, RouteClass.READ)
+                .add(GET, "/auth/me", whoAmI, RouteClass.READ)
+                .add(GET, "/auth/profile", whoAmI, RouteClass.READ)
+                .add(GET, "/user/profile", whoAmI, RouteClass.READ)
+                .add(GET, "/getTransactions", new GetTransactionsHandler(), RouteClass.READ,
+                        Flag.VERSIONED)
+                .add(GET, "/transactions", transactions, RouteClass.READ, Flag.VERSIONED)
+                .add(GET, "/transactions/list", transactions, RouteClass.READ, Flag.VERSIONED)
+                .add(GET, "/getSavings", new GetSavingsGoalHandler(), RouteClass.READ,
+                        Flag.VERSIONED)
+                .add(GET, "/goals/list", new ListGoalHandler(), RouteClass.READ, Flag.VERSIONED)
+                .add(GET, "/accounts/list", new ListAccountsHandler(), RouteClass.READ,
+                        Flag.VERSIONED)
+                .add(GET, "/accounts/listWithAllocations", listWithAllocations, RouteClass.READ,
+                        Flag.VERSIONED)
+                .add(GET, "/accounts/listDetailed", listWithAllocations, RouteClass.READ,
+                        Flag.VERSIONED)
+
+                .add(POST, "/createDeposit", deposit, RouteClass.MONEY)
+                .add(POST, "/deposit", deposit, RouteClass.MONEY)
+                .add(POST, "/withdraw", withdraw, RouteClass.MONEY)
+                .add(POST, "/createWithdraw", withdraw, RouteClass.MONEY)
+                // legacy user-to-user transfer, also changes the recipient's balance
+                .add(POST, "/transfer", new TransferHandler(), RouteClass.MONEY, Flag.CROSS_USER)
+                .add(POST, "/goals/contribute", contributeGoal, RouteClass.MONEY)
+                .add(POST, "/goals/{id}/contribute", contributeGoal, RouteClass.MONEY)
+                .add(POST, "/goals/transfer", transferGoals, RouteClass.MONEY)
+                .add(POST, "/transferGoals", transferGoals, RouteClass.MONEY)
+                .add(POST, "/accounts/transfer", new TransferBetweenAccountsHandler(),
+                        RouteClass.MONEY)
+
+                .add(PUT, "/savings", new SavingsHandler(), RouteClass.OTHER)
+                .add(POST, "/goals/create", new CreateGoalHandler(), RouteClass.OTHER)
+                .add(POST, "/goals/delete", deleteGoal, RouteClass.OTHER)
+                .add(DELETE, "/goals/{id}", deleteGoal, RouteClass.OTHER)
+                .add(POST, "/accounts/create", new CreateAccountHandler(), RouteClass.OTHER)
+                .add(POST, "/spend/log", new LogSpendHandler(), RouteClass.OTHER)
+
+                .add(POST, "/batch", new BatchHandler(), RouteClass.OTHER, Flag.COMPOSITE);
+    }
+
+    // Resolves method + path; fills in path parameters. Unknown paths get 404, known paths
+    // with the wrong method 405. A request without a method matches any route on the path.
     public static BaseHandler getHandler(ParsedRequest request) {
-        return switch (request.getPath()) {
-            case "/createUser" -> new CreateUserHandler();
-            case "/login" -> new LoginHandler();
-            case "/logout" -> new LogoutHandler();
-            case "/auth/whoami" -> new WhoAmIHandler();                 // <— NEW
-            case "/getTransactions" -> new GetTransactionsHandler();
-            case "/transactions" -> new TransactionsHandler();           // <— NEW (normalized)
-            case "/transactions/list" -> new TransactionsHandler();      // <— NEW (alias)
-            case "/createDeposit" -> new CreateDepositHandler();
-            case "/deposit" -> new CreateDepositHandler();              // <— NEW (alias)
-            case "/transfer" -> new TransferHandler();
-            case "/withdraw" -> new WithdrawHandler();
-            case "/createWithdraw" -> new WithdrawHandler();            // <— NEW (alias)
-            case "/savings" -> new SavingsHandler();
-            case "/getSavings" -> new GetSavingsGoalHandler();          // <— NEW
-
-            case "/goals/create" -> new handler.goals.CreateGoalHandler();
-            case "/goals/list" -> new handler.goals.ListGoalHandler();
-            case "/goals/contribute" -> new handler.goals.ContributeGoalHandler();
-            case "/goals/delete" -> new handler.goals.DeleteGoalHandler();
-            case "/goals/transfer" -> new handler.goals.TransferGoalsHandler();
-            case "/transferGoals" -> new handler.goals.TransferGoalsHandler(); // <— NEW (alias)
-
-            case "/accounts/create" -> new handler.accounts.CreateAccountHandler();
-            case "/accounts/list" -> new handler.accounts.ListAccountsHandler();
-            case "/accounts/transfer" -> new handler.accounts.TransferBetweenAccountsHandler();
-            case "/accounts/listWithAllocations" -> new handler.accounts.ListAccountsWithAllocationsHandler(); // <— NEW
-            case "/accounts/listDetailed" -> new handler.accounts.ListAccountsWithAllocationsHandler(); // <— NEW (alias)
-
-            case "/auth/me" -> new WhoAmIHandler();
-            case "/auth/profile" -> new WhoAmIHandler();
-            case "/user/profile" -> new WhoAmIHandler();
-
-            // Legacy generic transfer (not goal/account specific) left untouched
-            default -> new FallbackHandler();
-        };
+        RouteRegistry.Match match = route(request);
+        if (match.found()) {
+            match.params().forEach(request::setPathParam);
+            return match.route().handler();
+        }
+        if (match.allowed().isEmpty()) {
+            return NOT_FOUND;
+        }
+        String allow = String.join(", ", match.allowed());
+        return req -> new HttpResponseBuilder().setStatus(StatusCodes.METHOD_NOT_ALLOWED)
+                .setHeader("Allow", allow)
+                .setBody(new RestApiAppResponse<>(false, "Use " + allow));
+    }
+
+    // Whether the path belongs to the API at all; anything else may be a front-end file
+    public static boolean hasRoute(String path) {
+        return ROUTES.anyRoute(path) != null;
     }
 
+    public static RouteClass getRouteClass(String path) {
+        RouteRegistry.Route route = ROUTES.anyRoute(path);
+        return route == null ? RouteClass.OTHER : route.routeClass();
+    }
+
+    // Per-user lists the front-end polls; answered with an ETag and 304 when unchanged
+    public static boolean isVersioned(ParsedRequest req) {
+        RouteRegistry.Route route = route(req).route();
+        return route != null && route.versioned();
+    }
+
+    // Sessions come from the batch itself, so no sign-in routes, and no batches in batches.
+    // Unknown paths are allowed through to get their 404.
+    public static boolean isBatchable(String path) {
+        RouteRegistry.Route route = ROUTES.anyRoute(path);
+        return route == null || route.requiresAuth() && !route.composite();
+    }
+
+    // Routes that run other routes (/batch)
+    public static boolean isComposite(ParsedRequest req) {
+        RouteRegistry.Route route = route(req).route();
+        return route != null && route.composite();
+    }
+
+    // Successful writes by a signed-in user move that user's data version
+    public static void recordChange(ParsedRequest req, HttpResponseBuilder resp) {
+        String path = req.getPath();
+        int code = resp.getStatusCode();
+        RouteRegistry.Route route = route(req).route();
+        if (code < 200 || code >= 300 || route == null || !route.requiresAuth()
+                || route.routeClass() == RouteClass.READ || route.composite()) {
+            return;
+        }
+        AuthFilter.AuthResult auth = AuthFilter.doFilter(req);
+        if (auth.isLoggedIn) {
+            UserChanges.bump(auth.userName, path);
+        }
+        if (route.crossUser()) {
+            UserChanges.bumpAll(path);
+        }
+    }
+
+    // Routes whose handler answers 401 without a session; checked before the body is read.
+    // False for unknown paths and wrong methods so those still get their 404 / 405.
+    public static boolean requiresAuth(ParsedRequest req) {
+        RouteRegistry.Route route = route(req).route();
+        return route != null && route.requiresAuth();
+    }
+
+    // Looked up once per request and kept on it; changing the method or path drops it
+    private static RouteRegistry.Match route(ParsedRequest req) {
+        RouteRegistry.Match match = req.getRoute();
+        if (match == null) {
+            match = ROUTES.find(req.getMethod(), req.getPath());
+            req.setRoute(match);
+        }
+        return match;
+    }
 }
@@ -1,5 +1,6 @@
 package handler;
 
+import config.AppConfig;
 import dao.AuthDao;
 import dao.UserDao;
 import dto.AuthDto;
@@ -22,7 +23,7 @@ public class LoginHandler implements BaseHandler {
 
     @Override
     public HttpResponseBuilder handleRequest(ParsedRequest request) {
-        LoginDto userDto = GsonTool.GSON.fromJson(request.getBody(), LoginDto.class);
+        LoginDto userDto = request.getBodyAs(LoginDto.class);
         if (userDto == null || userDto.userName == null || userDto.password == null) {
             var body = new RestApiAppResponse<BaseDto>(false, Collections.emptyList(), "Missing username or password");
             return new HttpResponseBuilder().setStatus("400 Bad Request")
@@ -51,7 +52,7 @@ public class LoginHandler implements BaseHandler {
         authDao.put(authDto);
 
         var body = new RestApiAppResponse<BaseDto>(true, Collections.emptyList(), "Login successful");
-        boolean isProd = "production".equalsIgnoreCase(System.getenv("APP_ENV"));
+        boolean isProd = "production".equalsIgnoreCase(AppConfig.get().getString("app.env", ""));
         String flags = isProd ? "Path=/; HttpOnly; SameSite=None; Secure" : "Path=/; HttpOnly; SameSite=Lax";
         return new HttpResponseBuilder()
                 .setStatus("200 OK")
@@ -1,5 +1,6 @@
 package handler;
 
+import config.AppConfig;
 import request.ParsedRequest;
 import response.HttpResponseBuilder;
 import response.RestApiAppResponse;
@@ -7,7 +8,7 @@ import response.RestApiAppResponse;
 public class LogoutHandler implements BaseHandler {
     @Override
     public HttpResponseBuilder handleRequest(ParsedRequest request) {
-        boolean isProd = "production".equalsIgnoreCase(System.getenv("APP_ENV"));
+        boolean isProd = "production".equalsIgnoreCase(AppConfig.get().getString("app.env", ""));
         String flags = isProd ? "Path=/; HttpOnly; SameSite=None; Secure" : "Path=/; HttpOnly; SameSite=Lax";
         return new HttpResponseBuilder()
                 .setStatus(StatusCodes.OK)
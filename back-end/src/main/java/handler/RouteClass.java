@@ -0,0 +1,34 @@
+package handler;
+
+// Coarse grouping of routes by the kind of work they do; each class gets its own bulkhead.
+// Priority decides who is admitted first when the server is saturated (higher wins).
+// maxBodyBytes is the default request body cap; the bodies here are all small JSON objects.
+// deadlineMillis is the default time a request may take, queueing included, before it gets 504.
+public enum RouteClass {
+    AUTH(2, 4 * 1024, 10_000),   // password hashing + session writes
+    READ(0, 1024, 5_000),        // read-only listings the front-end polls
+    MONEY(3, 4 * 1024, 10_000),  // balance and allocation changes
+    OTHER(1, 16 * 1024, 10_000);
+
+    private final int priority;
+    private final int maxBodyBytes;
+    private final int deadlineMillis;
+
+    RouteClass(int priority, int maxBodyBytes, int deadlineMillis) {
+        this.priority = priority;
+        this.maxBodyBytes = maxBodyBytes;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    public int priority() {
+        return priority;
+    }
+
+    public int maxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    public int deadlineMillis() {
+        return deadlineMillis;
+    }
+}
@@ -0,0 +1,198 @@
+package handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Method + path dispatch table built once at startup.
+ *
+ * <p>Paths are split on '/' into a trie. A segment written as {@code {name}} matches any single
+ * segment and is handed to the handler as a path parameter. Literal segments are tried first;
+ * if nothing is registered down that branch the lookup backs up and tries the parameter, so
+ * {@code /goals/transfer/contribute} still reaches {@code /goals/{id}/contribute}. Lookups
+ * compare segments in place and allocate only for the parameters of a matched route. Handlers
+ * are shared instances, so they must not keep per-request state.
+ */
+public class RouteRegistry {
+
+    public enum Flag {
+        PUBLIC,      // no session needed (everything else answers 401 before the body is read)
+        VERSIONED,   // per-user list the front-end polls; gets an ETag and 304
+        CROSS_USER,  // a write that can change other users' data too
+        COMPOSITE    // runs other routes (/batch); their changes are recorded, not its own
+    }
+
+    public record Route(String method, String pattern, BaseHandler handler,
+                        RouteClass routeClass, boolean requiresAuth, boolean versioned,
+                        boolean crossUser, boolean composite) {
+    }
+
+    /** Result of a lookup: a route, or the methods the path does support (405), or neither. */
+    public record Match(Route route, Map<String, String> params, List<String> allowed) {
+
+        public boolean found() {
+            return route != null;
+        }
+    }
+
+    private static final Match NOT_FOUND = new Match(null, Map.of(), List.of());
+
+    private static final class Node {
+        // few children per node; scanned with regionMatches so lookups need no substrings
+        final List<String> names = new ArrayList<>();
+        final List<Node> literals = new ArrayList<>();
+        Node param;
+        String paramName;
+        // insertion order, so a method-less lookup gets the first one registered
+        final Map<String, Route> byMethod = new LinkedHashMap<>();
+
+        Node literal(String segment) {
+            int i = names.indexOf(segment);
+            if (i >= 0) {
+                return literals.get(i);
+            }
+            Node child = new Node();
+            names.add(segment);
+            literals.add(child);
+            return child;
+        }
+
+        Node literal(String path, int start, int end) {
+            int length = end - start;
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i);
+                if (name.length() == length && path.regionMatches(start, name, 0, length)) {
+                    return literals.get(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Node root = new Node();
+
+    public RouteRegistry add(String method, String pattern, BaseHandler handler,
+                             RouteClass routeClass, Flag... flags) {
+        boolean publicRoute = false;
+        boolean versioned = false;
+        boolean crossUser = false;
+        boolean composite = false;
+        for (Flag f : flags) {
+            publicRoute |= f == Flag.PUBLIC;
+            versioned |= f == Flag.VERSIONED;
+            crossUser |= f == Flag.CROSS_USER;
+            composite |= f == Flag.COMPOSITE;
+        }
+        Node node = root;
+        for (String segment : segments(pattern)) {
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (node.param == null) {
+                    node.param = new Node();
+                    node.paramName = name;
+                } else if (!node.paramName.equals(name)) {
+                    throw new IllegalArgumentException("Conflicting parameter name in " + pattern);
+                }
+                node = node.param;
+            } else {
+                node = node.literal(segment);
+            }
+        }
+        var route = new Route(method, pattern, handler, routeClass, !publicRoute, versioned,
+                crossUser, composite);
+        if (node.byMethod.putIfAbsent(method, route) != null) {
+            throw new IllegalArgumentException("Duplicate route " + method + " " + pattern);
+        }
+        return this;
+    }
+
+    /**
+     * Finds the route for a request. A null method matches whatever the path registered first;
+     * HEAD falls back to GET.
+     */
+    public Match find(String method, String path) {
+        Node node = walk(path);
+        if (node == null) {
+            return NOT_FOUND;
+        }
+        Route route;
+        if (method == null) {
+            route = node.byMethod.values().iterator().next();
+        } else {
+            String m = method.toUpperCase();
+            route = node.byMethod.get(m);
+            if (route == null && m.equals("HEAD")) {
+                route = node.byMethod.get("GET");
+            }
+        }
+        if (route == null) {
+            return new Match(null, Map.of(), new ArrayList<>(node.byMethod.keySet()));
+        }
+        return new Match(route, params(route.pattern(), path), List.of());
+    }
+
+    /** Any route on the path, ignoring the method; used for checks made before dispatch. */
+    public Route anyRoute(String path) {
+        Node node = walk(path);
+        return node == null ? null : node.byMethod.values().iterator().next();
+    }
+
+    // The node holding routes for the path, or null
+    private Node walk(String path) {
+        if (path == null || path.isEmpty() || path.charAt(0) != '/') {
+            return null;
+        }
+        return walk(root, path, 1);
+    }
+
+    // Literal child first, then the parameter if the literal branch has no route
+    private static Node walk(Node node, String path, int start) {
+        int length = path.length();
+        while (start < length && path.charAt(start) == '/') { // "//", trailing "/"
+            start++;
+        }
+        if (start >= length) {
+            return node.byMethod.isEmpty() ? null : node;
+        }
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = length;
+        }
+        Node literal = node.literal(path, start, end);
+        Node found = literal == null ? null : walk(literal, path, end);
+        if (found == null && node.param != null) {
+            found = walk(node.param, path, end);
+        }
+        return found;
+    }
+
+    // Parameters read off the path by the matched pattern; most routes have none
+    private static Map<String, String> params(String pattern, String path) {
+        if (pattern.indexOf('{') < 0) {
+            return Map.of();
+        }
+        Map<String, String> params = new HashMap<>(2);
+        List<String> names = segments(pattern);
+        List<String> values = segments(path);
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            if (name.startsWith("{") && name.endsWith("}")) {
+                params.put(name.substring(1, name.length() - 1), values.get(i));
+            }
+        }
+        return params;
+    }
+
+    private static List<String> segments(String pattern) {
+        List<String> out = new ArrayList<>();
+        for (String s : pattern.split("/")) {
+            if (!s.isEmpty()) {
+                out.add(s);
+            }
+        }
+        return out;
+    }
+}
@@ -43,7 +43,7 @@ public class SavingsHandler implements BaseHandler {
         }
 
         try {
-            double additionalAmount = GsonTool.GSON.fromJson(request.getBody(), Double.class);
+            double additionalAmount = request.getBodyAs(Double.class);
             double currentAmount = existingGoal.getDouble("currentAmount");
             double targetAmount = existingGoal.getDouble("targetAmount");
 
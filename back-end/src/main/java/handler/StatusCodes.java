@@ -4,11 +4,18 @@ public class StatusCodes {
 
     public static final String UNAUTHORIZED = "401 Unauthorized";
     public static final String OK = "200 OK";
+    public static final String NOT_MODIFIED = "304 Not Modified";
     public static final String SERVER_ERROR = "500 Internal Server Error";
     public static final String BAD_REQUEST = "400 Bad Request";
     public static final String NOT_FOUND = "404 Not Found";
     public static final String FORBIDDEN = "403 Forbidden";
     public static final String METHOD_NOT_ALLOWED = "405 Method Not Allowed";
+    public static final String CONFLICT = "409 Conflict";
+    public static final String PAYLOAD_TOO_LARGE = "413 Payload Too Large";
+    public static final String UNPROCESSABLE_ENTITY = "422 Unprocessable Entity";
+    public static final String TOO_MANY_REQUESTS = "429 Too Many Requests";
+    public static final String SERVICE_UNAVAILABLE = "503 Service Unavailable";
+    public static final String GATEWAY_TIMEOUT = "504 Gateway Timeout";
     // Alias for INTERNAL_SERVER_ERROR used previously
     public static final String INTERNAL_SERVER_ERROR = SERVER_ERROR;
 }
@@ -20,14 +20,13 @@ public class TransferHandler implements BaseHandler {
     public HttpResponseBuilder handleRequest(ParsedRequest request) {
         UserDao userDao = UserDao.getInstance();
 
-        TransferRequestDto transferRequestDto = GsonTool.GSON.fromJson(request.getBody(),
-                TransferRequestDto.class);
-
         AuthFilter.AuthResult authResult = AuthFilter.doFilter(request);
         if (!authResult.isLoggedIn) {
             return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
         }
 
+        TransferRequestDto transferRequestDto = request.getBodyAs(TransferRequestDto.class);
+
         UserDto fromUser = userDao.query(new Document("userName", authResult.userName))
                 .iterator().next();
 
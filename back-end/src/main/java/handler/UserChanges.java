@@ -0,0 +1,63 @@
+package handler;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory data version per user, bumped whenever a request may have changed that user's
+ * goals, accounts or transactions. Readers use it to tell whether anything changed since the
+ * last poll without querying Mongo. Versions only cover writes made through this JVM.
+ */
+public class UserChanges {
+
+    /** Told about every bump on the writing request's thread, so it must not block. */
+    public interface Listener {
+        // userName is null when the change may concern every user; source is the write's path
+        void changed(String userName, long version, String source);
+    }
+
+    private static final ConcurrentHashMap<String, AtomicLong> VERSIONS =
+            new ConcurrentHashMap<>();
+    // Bumped for writes that may touch other users' data (e.g. a transfer to another user)
+    private static final AtomicLong GENERATION = new AtomicLong();
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    public static void addListener(Listener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static long version(String userName) {
+        AtomicLong v = VERSIONS.get(userName);
+        return v == null ? 0 : v.get();
+    }
+
+    public static long generation() {
+        return GENERATION.get();
+    }
+
+    public static long bump(String userName) {
+        return bump(userName, null);
+    }
+
+    public static long bump(String userName, String source) {
+        long version = VERSIONS.computeIfAbsent(userName, k -> new AtomicLong())
+                .incrementAndGet();
+        for (Listener l : LISTENERS) {
+            l.changed(userName, version, source);
+        }
+        return version;
+    }
+
+    public static void bumpAll() {
+        bumpAll(null);
+    }
+
+    public static void bumpAll(String source) {
+        long generation = GENERATION.incrementAndGet();
+        for (Listener l : LISTENERS) {
+            l.changed(null, generation, source);
+        }
+    }
+}
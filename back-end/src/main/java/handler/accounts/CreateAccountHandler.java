@@ -1,6 +1,5 @@
 package handler.accounts;
 
-import com.google.gson.Gson;
 import dao.AccountDao;
 import dto.AccountDto;
 import handler.AuthFilter;
@@ -26,7 +25,7 @@ public class CreateAccountHandler implements BaseHandler {
     var auth = AuthFilter.doFilter(request);
     if (!auth.isLoggedIn) return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
 
-    Body b = new Gson().fromJson(request.getBody(), Body.class);
+    Body b = request.getBodyAs(Body.class);
     if (b == null || b.name == null || b.name.trim().isEmpty()) {
       return new HttpResponseBuilder().setStatus(StatusCodes.BAD_REQUEST)
           .setBody(new RestApiAppResponse<>(false, null, "Missing account name"));
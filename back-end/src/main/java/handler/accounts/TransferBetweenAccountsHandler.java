@@ -1,6 +1,5 @@
 package handler.accounts;
 
-import com.google.gson.Gson;
 import dao.AccountDao;
 import dao.TransactionDao;
 import dao.GoalDao; // added
@@ -24,7 +23,7 @@ public class TransferBetweenAccountsHandler implements BaseHandler {
     var auth = AuthFilter.doFilter(req);
     if (!auth.isLoggedIn) return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
 
-    Body b = new Gson().fromJson(req.getBody(), Body.class);
+    Body b = req.getBodyAs(Body.class);
     if (b == null || b.amount == null || b.amount <= 0 || b.fromAccountId == null || b.toAccountId == null) {
       return new HttpResponseBuilder().setStatus(StatusCodes.BAD_REQUEST)
           .setBody(new RestApiAppResponse<>(false, null, "fromAccountId, toAccountId and positive amount required"));
@@ -5,12 +5,12 @@ import dto.GoalDto;
 import handler.AuthFilter;
 import handler.BaseHandler;
 import handler.StatusCodes;
+import request.BodyTooLargeException;
 import request.ParsedRequest;
 import response.HttpResponseBuilder;
 import response.RestApiAppResponse;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import dao.AccountDao;
 import org.bson.types.ObjectId;
 
@@ -20,18 +20,20 @@ public class ContributeGoalHandler implements BaseHandler {
         var auth = AuthFilter.doFilter(req);
         if (!auth.isLoggedIn) return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
 
-        // Accept either {"goalId":"..."} or {"goalId":{"$oid":"..."}}
-        String goalIdStr = null;
+        // Accept either {"goalId":"..."} or {"goalId":{"$oid":"..."}}, or /goals/{id}/contribute
+        String goalIdStr = req.getPathParam("id");
         Double amountVal = null;
         try {
-            JsonObject root = JsonParser.parseString(req.getBody()).getAsJsonObject();
+            JsonObject root = req.getBodyAs(JsonObject.class);
             JsonElement gEl = root.get("goalId");
-            if (gEl != null && gEl.isJsonObject() && gEl.getAsJsonObject().has("$oid")) {
+            if (goalIdStr == null && gEl != null && gEl.isJsonObject() && gEl.getAsJsonObject().has("$oid")) {
                 goalIdStr = gEl.getAsJsonObject().get("$oid").getAsString();
-            } else if (gEl != null && gEl.isJsonPrimitive()) {
+            } else if (goalIdStr == null && gEl != null && gEl.isJsonPrimitive()) {
                 goalIdStr = gEl.getAsString();
             }
             if (root.has("amount")) amountVal = root.get("amount").getAsDouble();
+        } catch (BodyTooLargeException e) {
+            throw e; // 413 from the pipeline, like every other route
         } catch (Exception ignore) {}
 
         if (goalIdStr == null || goalIdStr.isBlank() || amountVal == null || amountVal <= 0) {
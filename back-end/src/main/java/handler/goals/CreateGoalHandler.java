@@ -1,7 +1,6 @@
 package handler.goals;
 
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.google.gson.JsonElement;
 import dao.GoalDao;
 import dto.GoalDto;
@@ -24,7 +23,7 @@ public class CreateGoalHandler implements BaseHandler {
         if (!auth.isLoggedIn) return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
 
         // robust body parsing
-        JsonObject body = JsonParser.parseString(request.getBody()).getAsJsonObject();
+        JsonObject body = request.getBodyAs(JsonObject.class);
         ObjectId accountObjId = parseObjectId(body.get("accountId"));
         String name = body.has("name") ? body.get("name").getAsString() : null;
         Double target = body.has("targetAmount") && !body.get("targetAmount").isJsonNull()
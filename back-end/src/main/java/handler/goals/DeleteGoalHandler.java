@@ -6,27 +6,32 @@ import handler.BaseHandler;
 import handler.StatusCodes;
 import org.bson.Document;
 import org.bson.types.ObjectId;
+import request.BodyTooLargeException;
 import request.ParsedRequest;
 import response.HttpResponseBuilder;
 import response.RestApiAppResponse;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 public class DeleteGoalHandler implements BaseHandler {
     @Override public HttpResponseBuilder handleRequest(ParsedRequest req) {
         var auth = AuthFilter.doFilter(req);
         if (!auth.isLoggedIn) return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
 
-        JsonObject body = null;
-        try { body = JsonParser.parseString(req.getBody()).getAsJsonObject(); } catch (Exception ignored) {}
-        if (body == null || !body.has("goalId")) return new HttpResponseBuilder().setStatus(StatusCodes.BAD_REQUEST);
+        // DELETE /goals/{id}, or POST /goals/delete with {"goalId": ...}
+        String goalIdStr = req.getPathParam("id");
+        if (goalIdStr == null) {
+            JsonObject body = null;
+            try { body = req.getBodyAs(JsonObject.class); }
+            catch (BodyTooLargeException e) { throw e; } // 413 from the pipeline
+            catch (Exception ignored) {}
+            if (body == null || !body.has("goalId")) return new HttpResponseBuilder().setStatus(StatusCodes.BAD_REQUEST);
 
-        String goalIdStr;
-        var gEl = body.get("goalId");
-        if (gEl.isJsonObject() && gEl.getAsJsonObject().has("$oid")) {
-            goalIdStr = gEl.getAsJsonObject().get("$oid").getAsString();
-        } else {
-            goalIdStr = gEl.getAsString();
+            var gEl = body.get("goalId");
+            if (gEl.isJsonObject() && gEl.getAsJsonObject().has("$oid")) {
+                goalIdStr = gEl.getAsJsonObject().get("$oid").getAsString();
+            } else {
+                goalIdStr = gEl.getAsString();
+            }
         }
 
         ObjectId id;
@@ -1,7 +1,6 @@
 package handler.goals;
 
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import dao.AccountDao;
 import dao.GoalDao;
 import dao.GoalDaoExt;
@@ -27,7 +26,7 @@ public class TransferGoalsHandler implements BaseHandler {
         var auth = AuthFilter.doFilter(req);
         if (!auth.isLoggedIn) return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
 
-        JsonObject body = JsonParser.parseString(req.getBody()).getAsJsonObject();
+        JsonObject body = req.getBodyAs(JsonObject.class);
         String fromGoalId = asId(body.get("fromGoalId"));
         String toGoalId   = asId(body.get("toGoalId"));
         double amount     = body.has("amount") ? body.get("amount").getAsDouble() : 0.0;
@@ -1,6 +1,5 @@
 package handler.spend;
 
-import com.google.gson.Gson;
 import dao.SpendDao;
 import dto.SpendDto;
 import handler.AuthFilter;
@@ -17,7 +16,7 @@ public class LogSpendHandler implements BaseHandler {
         var auth = AuthFilter.doFilter(req);
         if (!auth.isLoggedIn) return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
 
-        var b = new Gson().fromJson(req.getBody(), Body.class);
+        var b = req.getBodyAs(Body.class);
         if (b == null || b.category == null || b.amount == null || b.amount <= 0)
             return new HttpResponseBuilder().setStatus(StatusCodes.BAD_REQUEST);
 
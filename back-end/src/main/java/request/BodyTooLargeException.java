@@ -0,0 +1,11 @@
+package request;
+
+/** The request body is larger than the route allows; answered with 413. */
+public class BodyTooLargeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BodyTooLargeException(long maxBodyBytes) {
+        super("Request body exceeds " + maxBodyBytes + " bytes");
+    }
+}
@@ -1,57 +1,26 @@
 package request;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class CustomParser {
 
     // extract java useable values from a raw http request string
     // https://developer.mozilla.org/en-US/docs/Web/HTTP/Messages
+    // The whole string is the request: the head may end without a blank line, and everything
+    // after the blank line is the body. Encoded as ISO-8859-1, the charset the decoder reads
+    // the head in, so header text comes back as sent and byte offsets are char offsets
     public static ParsedRequest parse(String request) {
-        String[] lines = request.split("(\r\n|\r|\n)");
-        String requestLine = lines[0];
-        String[] requestParts = requestLine.split(" ");
-        var result = new ParsedRequest();
-        result.setMethod(requestParts[0]);
-
-        var parts = requestParts[1].split("\\?");
-        result.setPath(parts[0]);
-
-        if (parts.length == 2) {
-            System.out.println(parts[1]);
-            String[] queryParts = parts[1].split("&");
-            for (int i = 0; i < queryParts.length; i++) {
-                String[] pair = queryParts[i].split("=");
-                result.setQueryParam(pair[0], pair[1]);
-            }
-        }
-
-        String body = "";
-        boolean emptyLine = false;
-        for (String line : lines) {
-            if (line.contains(":") && !emptyLine) {
-                String[] headerParts = line.split(":");
-                String key = headerParts[0].trim();
-                String value = headerParts[1].trim();
-                result.setHeaderValue(key, value);
-
-                if (key.equalsIgnoreCase("cookie")) {
-                    String[] cookieParts = value.split(";");
-                    for (String cookiePart : cookieParts) {
-                        String part = cookiePart.trim();
-                        if (part.isEmpty()) continue;
-                        String[] kv = part.split("=", 2); // split on first '='
-                        String cKey = kv[0].trim();
-                        String cVal = kv.length > 1 ? kv[1] : "";
-                        result.setCookieValue(cKey, cVal); // stores "auth", not " auth"
-                    }
-                }
-            }
-            if (line.equals("")) {
-                emptyLine = true;
-            }
-            if (emptyLine) {
-                body += line;
-            }
+        byte[] bytes = request.getBytes(StandardCharsets.ISO_8859_1);
+        var in = ByteBuffer.wrap(bytes);
+        HttpRequestDecoder.Head head = new HttpRequestDecoder(bytes.length + 1)
+                .decodeHead(in, true);
+        if (head == null) {
+            throw new MalformedRequestException(false, "Empty request");
         }
-        result.setBody(body);
+        ParsedRequest result = head.toRequest();
+        int bodyStart = in.position() + head.length();
+        result.setBody(request.substring(bodyStart));
         return result;
     }
 }
@@ -0,0 +1,301 @@
+package request;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP/1.1 request decoder working on a connection's read buffer, one per
+ * connection. {@link #decodeHead} finds the end of the head by scanning bytes, resuming where
+ * the previous call stopped when the head arrives over several reads, and indexes the header
+ * fields by offset: a header value becomes a String only when something asks for it.
+ * {@link #decodeBody} then hands over the Content-Length bytes that follow.
+ *
+ * <p>Lines may end in CRLF or a bare LF; leading empty lines are skipped. Not thread-safe.
+ */
+public final class HttpRequestDecoder {
+
+    private static final byte[] NO_BODY = new byte[0];
+
+    private final int maxHeaderBytes;
+    // how much of the pending head (from the request start) is known not to end it
+    private int scanned;
+    // parsed, body still arriving
+    private Head head;
+
+    public HttpRequestDecoder(int maxHeaderBytes) {
+        this.maxHeaderBytes = maxHeaderBytes;
+    }
+
+    /**
+     * The head of the request at the buffer's position (read mode), or null until its blank
+     * line has arrived. The position only moves past leading empty lines; call again with the
+     * same request start once more bytes are in.
+     *
+     * @throws MalformedRequestException for a broken request line or header field, or one that
+     *                                   {@link MalformedRequestException#isTooLarge() is too large}
+     */
+    public Head decodeHead(ByteBuffer in) {
+        return decodeHead(in, false);
+    }
+
+    // atEnd: the buffer is the whole input, so running out of bytes also ends the head
+    Head decodeHead(ByteBuffer in, boolean atEnd) {
+        if (head != null) {
+            return head;
+        }
+        if (scanned == 0) {
+            while (in.hasRemaining() && isLineBreak(in.get(in.position()))) {
+                in.position(in.position() + 1);
+            }
+        }
+        int start = in.position();
+        int available = in.remaining();
+        int length = findHeadEnd(in, start, Math.min(available, maxHeaderBytes));
+        if (length < 0) {
+            if (available >= maxHeaderBytes) {
+                throw new MalformedRequestException(true, "Headers too large");
+            }
+            if (!atEnd || available == 0) {
+                scanned = Math.max(0, available - 2);
+                return null;
+            }
+            length = available;
+        }
+        byte[] bytes = new byte[length];
+        in.get(start, bytes);
+        head = new Head(bytes);
+        return head;
+    }
+
+    /**
+     * The body of the decoded head once all {@code contentLength} bytes are in, and moves the
+     * position past the request; null until then. The buffer is reused for the next read, so
+     * the body is copied out of it exactly once.
+     */
+    public ByteBuffer decodeBody(ByteBuffer in, int contentLength) {
+        if (head == null) {
+            throw new IllegalStateException("No request head decoded");
+        }
+        int total = head.length + contentLength;
+        if (in.remaining() < total) {
+            return null;
+        }
+        byte[] body = contentLength == 0 ? NO_BODY : new byte[contentLength];
+        in.get(in.position() + head.length, body);
+        in.position(in.position() + total);
+        reset();
+        return ByteBuffer.wrap(body);
+    }
+
+    /** Forgets the pending request, e.g. after it was refused. */
+    public void reset() {
+        head = null;
+        scanned = 0;
+    }
+
+    // Length of the head including its blank line, or -1; searches [start+scanned, start+limit)
+    private int findHeadEnd(ByteBuffer in, int start, int limit) {
+        for (int i = Math.max(0, scanned - 1); i < limit; i++) {
+            if (in.get(start + i) != '\n') {
+                continue;
+            }
+            if (i + 1 < limit && in.get(start + i + 1) == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < limit && in.get(start + i + 1) == '\r'
+                    && in.get(start + i + 2) == '\n') {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == '\r' || b == '\n';
+    }
+
+    /**
+     * A request line and header fields, kept as the bytes that arrived plus offsets into them.
+     */
+    public static final class Head {
+
+        private final byte[] bytes;
+        private final int length;
+        private final String method;
+        private final String target;
+        private final String version;
+        // per field: name start, name end, value start, value end
+        private int[] fields = new int[4 * 16];
+        private int fieldCount;
+
+        Head(byte[] bytes) {
+            this.bytes = bytes;
+            this.length = bytes.length;
+            int lineEnd = lineEnd(0);
+            int sp1 = indexOf(' ', 0, lineEnd);
+            int sp2 = sp1 < 0 ? -1 : indexOf(' ', sp1 + 1, lineEnd);
+            if (sp1 <= 0 || sp2 <= sp1 + 1 || sp2 + 1 >= trimEnd(lineEnd)) {
+                throw new MalformedRequestException(false, "Malformed request line");
+            }
+            method = ascii(0, sp1);
+            target = ascii(sp1 + 1, sp2);
+            version = ascii(sp2 + 1, trimEnd(lineEnd));
+            int lineStart = nextLine(lineEnd);
+            while (lineStart < length) {
+                lineEnd = lineEnd(lineStart);
+                int contentEnd = trimEnd(lineEnd);
+                if (contentEnd == lineStart) {
+                    break; // the blank line
+                }
+                addField(lineStart, contentEnd);
+                lineStart = nextLine(lineEnd);
+            }
+        }
+
+        private void addField(int start, int end) {
+            int colon = indexOf(':', start, end);
+            // no obs-fold continuation lines, no whitespace before the colon (RFC 9112 5)
+            if (colon <= start || isWhitespace(bytes[start]) || isWhitespace(bytes[colon - 1])) {
+                throw new MalformedRequestException(false, "Malformed header field");
+            }
+            int valueStart = colon + 1;
+            while (valueStart < end && isWhitespace(bytes[valueStart])) {
+                valueStart++;
+            }
+            int valueEnd = end;
+            while (valueEnd > valueStart && isWhitespace(bytes[valueEnd - 1])) {
+                valueEnd--;
+            }
+            if (fieldCount * 4 == fields.length) {
+                fields = Arrays.copyOf(fields, fields.length * 2);
+            }
+            int f = fieldCount++ * 4;
+            fields[f] = start;
+            fields[f + 1] = colon;
+            fields[f + 2] = valueStart;
+            fields[f + 3] = valueEnd;
+        }
+
+        public String method() {
+            return method;
+        }
+
+        // As sent, e.g. /transactions?limit=5
+        public String target() {
+            return target;
+        }
+
+        public String version() {
+            return version;
+        }
+
+        public String path() {
+            int q = target.indexOf('?');
+            return q < 0 ? target : target.substring(0, q);
+        }
+
+        // Undecoded, null without a '?'
+        public String rawQuery() {
+            int q = target.indexOf('?');
+            return q < 0 ? null : target.substring(q + 1);
+        }
+
+        // Bytes of the head, blank line included
+        public int length() {
+            return length;
+        }
+
+        public int fieldCount() {
+            return fieldCount;
+        }
+
+        /** Value of the first field called {@code name}, compared case-insensitively. */
+        public String header(String name) {
+            int n = name.length();
+            for (int i = 0; i < fieldCount; i++) {
+                int f = i * 4;
+                if (fields[f + 1] - fields[f] == n && nameMatches(fields[f], name)) {
+                    return new String(bytes, fields[f + 2], fields[f + 3] - fields[f + 2],
+                            StandardCharsets.ISO_8859_1);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * The declared Content-Length; 0 without one.
+         *
+         * @throws MalformedRequestException if it is not a non-negative number
+         */
+        public long contentLength() {
+            String value = header("Content-Length");
+            if (value == null) {
+                return 0;
+            }
+            try {
+                long length = Long.parseLong(value);
+                if (length >= 0) {
+                    return length;
+                }
+            } catch (NumberFormatException e) {
+                // falls through
+            }
+            throw new MalformedRequestException(false, "Invalid Content-Length");
+        }
+
+        /** A request for the handlers; headers are still read from here on demand. */
+        public ParsedRequest toRequest() {
+            var req = new ParsedRequest();
+            req.setMethod(method);
+            req.setPath(path());
+            req.setRawQuery(rawQuery());
+            req.setHeaders(this::header);
+            return req;
+        }
+
+        private boolean nameMatches(int at, String name) {
+            for (int i = 0; i < name.length(); i++) {
+                if (lower(bytes[at + i]) != lower((byte) name.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int lower(byte b) {
+            return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\t';
+        }
+
+        private String ascii(int from, int to) {
+            return new String(bytes, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+
+        private int indexOf(char c, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (bytes[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Index of the LF ending the line at from, or length
+        private int lineEnd(int from) {
+            int i = indexOf('\n', from, length);
+            return i < 0 ? length : i;
+        }
+
+        private int trimEnd(int lineEnd) {
+            return lineEnd > 0 && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+        }
+
+        private int nextLine(int lineEnd) {
+            return Math.min(length, lineEnd + 1);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package request;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Fails once more than max bytes have been read, so an undeclared length cannot exhaust heap
+class LimitedInputStream extends FilterInputStream {
+
+    private final long max;
+    private long count;
+
+    LimitedInputStream(InputStream in, long max) {
+        super(in);
+        this.max = max;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        int n = super.read(buf, off, len);
+        if (n > 0) {
+            count(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long n) {
+        count += n;
+        if (count > max) {
+            throw new BodyTooLargeException(max);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package request;
+
+/** The request line or headers cannot be parsed (400), or the head is too large (431). */
+public class MalformedRequestException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean tooLarge;
+
+    public MalformedRequestException(boolean tooLarge, String message) {
+        super(message);
+        this.tooLarge = tooLarge;
+    }
+
+    public boolean isTooLarge() {
+        return tooLarge;
+    }
+}
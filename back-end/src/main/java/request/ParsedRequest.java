@@ -1,40 +1,122 @@
 package request;
 
+import handler.GsonTool;
+import handler.RouteRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
+/**
+ * One request as the handlers see it. The engines hand over their own header view and the
+ * raw query string instead of copying them in; headers are looked up on demand, and the query
+ * and Cookie header are parsed on first use and kept, so a request only pays for what its
+ * handler reads.
+ */
 public class ParsedRequest {
 
+    /** Case-insensitive header lookup over the engine's data; null when absent. */
+    public interface HeaderLookup {
+        String get(String name);
+    }
+
     private String path;
-    private Map<String, String> queryMap = new HashMap<>();
-    private Map<String, String> headerMap = new HashMap<>();
-    private Map<String, String> cookieMap = new HashMap<>();
+    private HeaderLookup headerSource;
+    // Explicitly set headers, which win over the source; allocated on first put
+    private Map<String, String> headerMap;
+    // Undecoded query string, parsed into queryMap on first use
+    private String rawQuery;
+    private Map<String, List<String>> queryMap;
+    private Map<String, String> cookieMap;
+    private boolean cookiesParsed;
+
+    private Map<String, Object> attributes;
+    private Map<String, String> pathParams;
+    // Route lookup for the current method and path, kept by HandlerFactory
+    private RouteRegistry.Match route;
 
     private String method;
+    // IP the connection came from, e.g. "203.0.113.7"; null when not from a socket
+    private String clientAddress;
     private String body;
+    // Unread body; decoded on first use, at most maxBodyBytes
+    private InputStream bodyStream;
+    private long contentLength = -1;
+    private long maxBodyBytes = Long.MAX_VALUE;
 
+    // First value of a URL-decoded query parameter, e.g. 5 for ?limit=5&limit=9
     public String getQueryParam(String key) {
-        return queryMap.get(key);
+        List<String> values = query().get(key);
+        return values == null ? null : values.get(0);
     }
 
-    public String getHeaderValue(String key) {
-        return headerMap.get(key);
+    // Every value of a repeated parameter, in order; empty if absent
+    public List<String> getQueryParams(String key) {
+        return query().getOrDefault(key, List.of());
     }
 
     public void setQueryParam(String key, String value) {
-        this.queryMap.put(key, value);
+        Map<String, List<String>> q = query();
+        if (q.isEmpty()) {
+            q = queryMap = new HashMap<>(4);
+        }
+        q.put(key, List.of(value));
+    }
+
+    // The part of the target after '?', still percent-encoded
+    public void setRawQuery(String rawQuery) {
+        this.rawQuery = rawQuery;
+        this.queryMap = null;
+    }
+
+    // As received, null without one; setQueryParam does not change it
+    public String getRawQuery() {
+        return rawQuery;
+    }
+
+    public String getHeaderValue(String key) {
+        if (headerMap != null) {
+            String value = headerMap.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return headerSource == null ? null : headerSource.get(key);
     }
 
     public void setHeaderValue(String key, String value) {
-        this.headerMap.put(key, value);
+        if (headerMap == null) {
+            // header names are case-insensitive; engines hand them over in different cases
+            headerMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        }
+        headerMap.put(key, value);
+        if ("Cookie".equalsIgnoreCase(key)) {
+            cookiesParsed = false;
+        }
+    }
+
+    public void setHeaders(HeaderLookup headers) {
+        this.headerSource = headers;
+        this.cookiesParsed = false;
     }
 
     public void setPath(String path) {
         this.path = path;
+        this.route = null;
     }
 
     public void setMethod(String method) {
         this.method = method;
+        this.route = null;
     }
 
     public String getPath() {
@@ -45,19 +127,188 @@ public class ParsedRequest {
         return method;
     }
 
+    public String getClientAddress() {
+        return clientAddress;
+    }
+
+    public void setClientAddress(String clientAddress) {
+        this.clientAddress = clientAddress;
+    }
+
+    // Reads and keeps the whole body; prefer getBodyAs, which decodes straight off the stream
     public String getBody() {
+        if (body == null && bodyStream != null) {
+            try (InputStream in = limitedBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return body;
     }
 
     public void setBody(String body) {
         this.body = body;
+        this.bodyStream = null;
+    }
+
+    /**
+     * Decodes the JSON body into {@code type}, reading it from the connection without an
+     * intermediate String. The stream can only be consumed once.
+     *
+     * @throws BodyTooLargeException past the route's body limit
+     * @throws com.google.gson.JsonParseException if the body is not valid JSON for the type
+     */
+    public <T> T getBodyAs(Class<T> type) {
+        return getBodyAs((Type) type);
+    }
+
+    public <T> T getBodyAs(Type type) {
+        if (bodyStream == null) {
+            return GsonTool.GSON.fromJson(body, type);
+        }
+        try (var reader = new InputStreamReader(limitedBody(), StandardCharsets.UTF_8)) {
+            return GsonTool.GSON.fromJson(reader, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // contentLength is -1 when the client did not declare one
+    public void setBodyStream(InputStream in, long contentLength) {
+        this.bodyStream = in;
+        this.contentLength = contentLength;
+        this.body = null;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public void setMaxBodyBytes(long maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    private InputStream limitedBody() {
+        if (contentLength > maxBodyBytes) {
+            throw new BodyTooLargeException(maxBodyBytes);
+        }
+        InputStream in = new LimitedInputStream(bodyStream, maxBodyBytes);
+        bodyStream = null;
+        return in;
     }
 
     public void setCookieValue(String key, String value) {
-        this.cookieMap.put(key, value);
+        if (cookieMap == null) {
+            cookieMap = new HashMap<>(4);
+        }
+        cookieMap.put(key, value);
     }
 
+    // Cookies come from the Cookie header, split once on first use
     public String getCookieValue(String key) {
-        return cookieMap.get(key);
+        if (!cookiesParsed) {
+            cookiesParsed = true;
+            parseCookies(getHeaderValue("Cookie"));
+        }
+        return cookieMap == null ? null : cookieMap.get(key);
+    }
+
+    // "a=1; b=2"; values set with setCookieValue win over the header's
+    private void parseCookies(String header) {
+        if (header == null) {
+            return;
+        }
+        int start = 0;
+        while (start < header.length()) {
+            int end = header.indexOf(';', start);
+            if (end < 0) {
+                end = header.length();
+            }
+            int eq = header.indexOf('=', start);
+            if (eq > start && eq < end) {
+                String name = header.substring(start, eq).trim();
+                if (!name.isEmpty()) {
+                    if (cookieMap == null) {
+                        cookieMap = new HashMap<>(4);
+                    }
+                    cookieMap.putIfAbsent(name, header.substring(eq + 1, end).trim());
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    private Map<String, List<String>> query() {
+        if (queryMap == null) {
+            queryMap = rawQuery == null || rawQuery.isEmpty() ? Map.of() : parseQuery(rawQuery);
+        }
+        return queryMap;
+    }
+
+    private static Map<String, List<String>> parseQuery(String raw) {
+        Map<String, List<String>> params = new HashMap<>(4);
+        int start = 0;
+        while (start <= raw.length()) {
+            int end = raw.indexOf('&', start);
+            if (end < 0) {
+                end = raw.length();
+            }
+            if (end > start) {
+                int eq = raw.indexOf('=', start);
+                boolean hasValue = eq >= 0 && eq < end;
+                String name = decode(raw.substring(start, hasValue ? eq : end));
+                String value = hasValue ? decode(raw.substring(eq + 1, end)) : "";
+                if (!name.isEmpty()) {
+                    params.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+                }
+            }
+            start = end + 1;
+        }
+        return params;
+    }
+
+    // '+' is a space; a malformed escape is kept as sent rather than failing the request
+    private static String decode(String s) {
+        if (s.indexOf('%') < 0 && s.indexOf('+') < 0) {
+            return s;
+        }
+        try {
+            return URLDecoder.decode(s, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return s;
+        }
+    }
+
+    // Values captured by {name} segments of the matched route, e.g. /goals/{id}
+    public String getPathParam(String key) {
+        return pathParams == null ? null : pathParams.get(key);
+    }
+
+    public RouteRegistry.Match getRoute() {
+        return route;
+    }
+
+    public void setRoute(RouteRegistry.Match route) {
+        this.route = route;
+    }
+
+    public void setPathParam(String key, String value) {
+        if (pathParams == null) {
+            pathParams = new HashMap<>(4);
+        }
+        pathParams.put(key, value);
+    }
+
+    // Per-request scratch space for values computed once and reused, e.g. the auth lookup
+    public Object getAttribute(String key) {
+        return attributes == null ? null : attributes.get(key);
+    }
+
+    public void setAttribute(String key, Object value) {
+        if (attributes == null) {
+            attributes = new HashMap<>(4);
+        }
+        attributes.put(key, value);
     }
 }
@@ -17,20 +17,16 @@ public class CustomHttpResponse {
         this.body = body;
     }
 
-    // TODO fill this out
+    // The raw response as text, for tests and debugging; the engines encode their own
     public String toString() {
-        String headerString = "";
+        StringBuilder sb = new StringBuilder(128).append(version).append(' ').append(status)
+                .append("\r\n");
         for (Entry<String, String> header : headers.entrySet()) {
-            headerString += header.getKey() + ": " + header.getValue() + "\r\n";
+            sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
         }
-        String res = version + " " + status + "\r\n" + headerString;
-
-        if (body != null && !body.isEmpty() && !body.isBlank()) {
-            res += "\r\n" + body;
+        if (body != null && !body.isBlank()) {
+            sb.append("\r\n").append(body);
         }
-
-        System.out.println("Raw http response:");
-        System.out.println(res);
-        return res;
+        return sb.toString();
     }
 }
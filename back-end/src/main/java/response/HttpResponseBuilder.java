@@ -2,16 +2,32 @@ package response;
 
 import handler.GsonTool;
 
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 public class HttpResponseBuilder {
 
-    private Map<String, String> headers = new HashMap<>();
+    // What a builder with no body serializes to; shared, never written to
+    private static final byte[] NULL_BODY = "null".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NO_BODY = new byte[0];
+
+    // Allocated on the first setHeader; most responses only get the engine's defaults
+    private Map<String, String> headers;
     private String status;
     private String version = "HTTP/1.1";
     private RestApiAppResponse body;
     private String bodyString;
+    private StreamingBody streamingBody;
+    private byte[] renderedBody;
 
     public HttpResponseBuilder setHeaders(Map<String, String> headers) {
         this.headers = headers;
@@ -19,6 +35,9 @@ public class HttpResponseBuilder {
     }
 
     public HttpResponseBuilder setHeader(String key, String value) {
+        if (headers == null) {
+            headers = new HashMap<>(4);
+        }
         headers.put(key, value);
         return this;
     }
@@ -43,8 +62,24 @@ public class HttpResponseBuilder {
         return this;
     }
 
+    // Written straight to the connection with chunked encoding instead of a fixed length
+    public HttpResponseBuilder setStreamingBody(StreamingBody body) {
+        this.streamingBody = body;
+        return this;
+    }
+
+    // Pins the body to bytes that were already serialized, e.g. to hash them for an ETag
+    public HttpResponseBuilder setRenderedBody(byte[] bytes) {
+        this.renderedBody = bytes;
+        this.body = null;
+        this.bodyString = null;
+        this.streamingBody = null;
+        return this;
+    }
+
+    // Read-only view when nothing was set; use setHeader to add
     public Map<String, String> getHeaders() {
-        return headers;
+        return headers == null ? Map.of() : headers;
     }
 
     public String getStatus() {
@@ -63,8 +98,87 @@ public class HttpResponseBuilder {
         return bodyString;
     }
 
+    public StreamingBody getStreamingBody() {
+        return streamingBody;
+    }
+
+    public boolean isStreaming() {
+        return streamingBody != null;
+    }
+
+    // Numeric part of the status line, 200 if the handler left it empty or non-numeric.
+    // Called several times per request, so it parses in place rather than splitting
+    public int getStatusCode() {
+        if (status == null) {
+            return 200;
+        }
+        int i = 0;
+        int n = status.length();
+        while (i < n && status.charAt(i) == ' ') {
+            i++;
+        }
+        int code = 0;
+        int digits = 0;
+        for (; i < n && status.charAt(i) != ' '; i++, digits++) {
+            char c = status.charAt(i);
+            if (c < '0' || c > '9' || digits == 9) {
+                return 200;
+            }
+            code = code * 10 + (c - '0');
+        }
+        return digits == 0 ? 200 : code;
+    }
+
+    /**
+     * Serializes a body once, for responses that never change (e.g. "server busy"); pass the
+     * result to {@link #setRenderedBody} instead of rebuilding the JSON per request. The array
+     * is shared, so nothing may write to it.
+     */
+    public static byte[] render(RestApiAppResponse<?> body) {
+        return GsonTool.GSON.toJson(body).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // JSON for the object body, else the raw string body, else "null"; nothing for 204/304
+    public byte[] serializeBody() {
+        int code = getStatusCode();
+        if (code == 204 || code == 304) {
+            return NO_BODY;
+        }
+        if (renderedBody != null) {
+            return renderedBody;
+        }
+        if (streamingBody != null) {
+            var bytes = new ByteArrayOutputStream();
+            try {
+                writeBody(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+        if (body == null) {
+            // e.g. a bare 401
+            return bodyString != null ? bodyString.getBytes(StandardCharsets.UTF_8) : NULL_BODY;
+        }
+        return GsonTool.GSON.toJson(body).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Streams the body through a small buffer; memory does not grow with the body size
+    public void writeBody(OutputStream out) throws IOException {
+        if (streamingBody == null) {
+            out.write(serializeBody());
+            return;
+        }
+        JsonWriter writer = GsonTool.GSON.newJsonWriter(
+                new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192));
+        streamingBody.writeTo(writer);
+        writer.flush();
+    }
+
     public CustomHttpResponse build() {
-        String parsedBody = body != null ? GsonTool.GSON.toJson(body) : bodyString;
-        return new CustomHttpResponse(headers, status, version, parsedBody);
+        String parsedBody = streamingBody != null
+                ? new String(serializeBody(), StandardCharsets.UTF_8)
+                : body != null ? GsonTool.GSON.toJson(body) : bodyString;
+        return new CustomHttpResponse(getHeaders(), status, version, parsedBody);
     }
 }
@@ -9,6 +9,7 @@ public class RestApiAppResponse<T> {
     public final boolean status;
     public final List<T> data;
     public final String message;
+    // An empty HashMap allocates no table until the first put
     public final Map<String, Object> properties = new HashMap<>();
 
     public RestApiAppResponse(boolean status, List<T> data, String message) {
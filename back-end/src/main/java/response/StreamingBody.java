@@ -0,0 +1,15 @@
+package response;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * A response body that is written incrementally instead of being built up front, so a large
+ * result never has to sit in memory as one object graph or string.
+ */
+@FunctionalInterface
+public interface StreamingBody {
+
+    void writeTo(JsonWriter writer) throws IOException;
+}
@@ -0,0 +1,66 @@
+package server;
+
+import handler.RouteClass;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One bounded pool + queue per {@link RouteClass}, so a login flood only fills the AUTH
+ * queue and deposits keep their own threads. A full queue rejects instead of blocking.
+ */
+public class Bulkheads {
+
+    private final Map<RouteClass, ThreadPoolExecutor> pools = new EnumMap<>(RouteClass.class);
+    private final Map<RouteClass, AtomicLong> rejected = new EnumMap<>(RouteClass.class);
+
+    public Bulkheads add(RouteClass routeClass, int threads, int queueSize) {
+        int size = Math.max(1, threads);
+        var pool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                ServerExecutors.namedFactory("bulkhead-" + routeClass.name().toLowerCase() + "-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        pools.put(routeClass, pool);
+        rejected.put(routeClass, new AtomicLong());
+        return this;
+    }
+
+    /** @return false if the class has no free thread and its queue is full */
+    public boolean submit(RouteClass routeClass, Runnable task) {
+        var pool = pools.getOrDefault(routeClass, pools.get(RouteClass.OTHER));
+        try {
+            pool.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.getOrDefault(routeClass, rejected.get(RouteClass.OTHER)).incrementAndGet();
+            return false;
+        }
+    }
+
+    public int queueDepth(RouteClass routeClass) {
+        var pool = pools.get(routeClass);
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        pools.forEach((routeClass, pool) -> {
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("threads", pool.getMaximumPoolSize());
+            s.put("active", pool.getActiveCount());
+            s.put("queued", pool.getQueue().size());
+            s.put("queueCapacity", pool.getQueue().size() + pool.getQueue().remainingCapacity());
+            s.put("rejected", rejected.get(routeClass).get());
+            s.put("completed", pool.getCompletedTaskCount());
+            out.put(routeClass.name().toLowerCase(), s);
+        });
+        return out;
+    }
+}
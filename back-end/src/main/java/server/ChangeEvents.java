@@ -0,0 +1,160 @@
+package server;
+
+import handler.UserChanges;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * GET /events: a Server-Sent Events stream per signed-in browser tab, telling it when its
+ * accounts, goals or transactions changed so it can refetch instead of polling.
+ *
+ * <p>Writes publish through {@link UserChanges} on the request thread, so publishing only
+ * offers to each subscriber's bounded queue and never waits for a socket. Each subscriber has
+ * its own virtual thread writing to its connection; a client that does not keep up fills its
+ * queue, which is then replaced by a single "resync" event (refetch everything). Idle streams
+ * get a comment line every heartbeat so proxies and the browser keep them open. A sink is
+ * only ever written to and closed by its subscriber's thread, shutdown included.
+ */
+public class ChangeEvents implements UserChanges.Listener {
+
+    public static final String PATH = "/events";
+
+    /** Where a subscriber's events go; send blocks while the client is not reading. */
+    public interface Sink {
+        void send(byte[] data) throws IOException;
+
+        void close();
+    }
+
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESYNC = "event: resync\ndata: {}\n\n"
+            .getBytes(StandardCharsets.UTF_8);
+    // queued by closeAll; compared by identity, never sent
+    private static final byte[] CLOSE = new byte[0];
+
+    private final int queueSize;
+    private final long heartbeatMillis;
+    private final Map<String, Set<Subscriber>> byUser = new ConcurrentHashMap<>();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
+    private volatile boolean closed;
+
+    public ChangeEvents(int queueSize, long heartbeatMillis) {
+        this.queueSize = Math.max(1, queueSize);
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    private final class Subscriber {
+        final String userName;
+        final Sink sink;
+        final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(queueSize);
+
+        Subscriber(String userName, Sink sink) {
+            this.userName = userName;
+            this.sink = sink;
+        }
+
+        void offer(byte[] event) {
+            if (closed) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                // too far behind for the details to matter
+                queue.clear();
+                queue.offer(RESYNC);
+                resyncs.increment();
+            }
+        }
+
+        // wakes the pump, which closes the sink itself; pending events no longer matter
+        void end() {
+            while (!queue.offer(CLOSE)) {
+                queue.clear();
+            }
+        }
+
+        void pump() {
+            try {
+                sink.send(("retry: 3000\nevent: ready\ndata: {\"version\":"
+                        + UserChanges.version(userName) + "}\n\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                while (!closed) {
+                    byte[] event = queue.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+                    if (event == CLOSE) {
+                        break;
+                    }
+                    sink.send(event != null ? event : HEARTBEAT);
+                }
+            } catch (IOException | InterruptedException e) {
+                // client went away, or shutting down
+            } finally {
+                unsubscribe(this);
+            }
+        }
+    }
+
+    /** Starts streaming to an already-authenticated connection whose headers are sent. */
+    public void subscribe(String userName, Sink sink) {
+        if (closed) {
+            sink.close();
+            return;
+        }
+        Subscriber s = new Subscriber(userName, sink);
+        byUser.computeIfAbsent(userName, k -> ConcurrentHashMap.newKeySet()).add(s);
+        Thread.ofVirtual().name("events-" + userName).start(s::pump);
+    }
+
+    private void unsubscribe(Subscriber s) {
+        byUser.computeIfPresent(s.userName, (k, set) -> {
+            set.remove(s);
+            return set.isEmpty() ? null : set;
+        });
+        s.sink.close();
+    }
+
+    @Override
+    public void changed(String userName, long version, String source) {
+        StringBuilder sb = new StringBuilder(64).append("event: change\ndata: {");
+        sb.append(userName != null ? "\"version\":" : "\"generation\":").append(version);
+        if (source != null) {
+            sb.append(",\"source\":\"").append(source.replace("\"", "")).append('"');
+        }
+        byte[] event = sb.append("}\n\n").toString().getBytes(StandardCharsets.UTF_8);
+        if (userName == null) {
+            byUser.values().forEach(set -> set.forEach(s -> s.offer(event)));
+        } else {
+            Set<Subscriber> set = byUser.get(userName);
+            if (set != null) {
+                set.forEach(s -> s.offer(event));
+            }
+        }
+        published.increment();
+    }
+
+    /**
+     * Ends every stream; browsers reconnect (to another instance) after the retry delay. Each
+     * subscriber's thread closes its own sink once its current send returns.
+     */
+    public void closeAll() {
+        closed = true;
+        byUser.values().forEach(set -> set.forEach(Subscriber::end));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("subscribers", byUser.values().stream().mapToInt(Set::size).sum());
+        s.put("users", byUser.size());
+        s.put("published", published.sum());
+        s.put("resyncs", resyncs.sum());
+        return s;
+    }
+}
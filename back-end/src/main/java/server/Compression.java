@@ -0,0 +1,213 @@
+package server;
+
+import response.HttpResponseBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * gzip / deflate response bodies negotiated from Accept-Encoding.
+ *
+ * <p>Deflaters hold native zlib state that is expensive to create, so they are pooled and
+ * reset between responses. The pool is shared rather than thread-local because request
+ * threads are virtual by default and would each get (and leak) their own.
+ */
+public class Compression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final byte[] GZIP_HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final int minBytes;
+    private final int level;
+    // raw deflate for gzip framing, zlib-wrapped for Content-Encoding: deflate
+    private final BlockingQueue<Deflater> rawPool;
+    private final BlockingQueue<Deflater> zlibPool;
+
+    public Compression(int minBytes, int level, int poolSize) {
+        this.minBytes = minBytes;
+        this.level = level;
+        this.rawPool = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+        this.zlibPool = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    /** Picks gzip or deflate from an Accept-Encoding header, or null for identity. */
+    public String negotiate(String acceptEncoding) {
+        double gzipQ = quality(acceptEncoding, GZIP);
+        double deflateQ = quality(acceptEncoding, DEFLATE);
+        if (gzipQ <= 0 && deflateQ <= 0) {
+            return null;
+        }
+        return gzipQ >= deflateQ ? GZIP : DEFLATE;
+    }
+
+    /**
+     * The q-value Accept-Encoding gives a coding: its own entry, else the wildcard's, else 0.
+     * x-gzip counts as gzip.
+     */
+    public static double quality(String acceptEncoding, String coding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return 0;
+        }
+        // -1 = not mentioned; a wildcard only covers codings that were not listed explicitly
+        double codingQ = -1;
+        double anyQ = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String name = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String p = params[i].trim();
+                if (p.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(p.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equals(coding) || coding.equals(GZIP) && name.equals("x-gzip")) {
+                codingQ = q;
+            } else if (name.equals("*")) {
+                anyQ = q;
+            }
+        }
+        return Math.max(0, codingQ < 0 ? anyQ : codingQ);
+    }
+
+    /**
+     * Whether a response is worth compressing: not already encoded, has a body, and is either
+     * streamed (size unknown, usually a long list) or at least the minimum size.
+     */
+    public boolean shouldCompress(HttpResponseBuilder resp, int knownLength) {
+        int code = resp.getStatusCode();
+        if (code == 204 || code == 304 || resp.getHeaders().containsKey("Content-Encoding")) {
+            return false;
+        }
+        return resp.isStreaming() || knownLength >= minBytes;
+    }
+
+    public byte[] compress(byte[] body, String encoding) {
+        var bytes = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (OutputStream out = wrap(bytes, encoding)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Compressing view of {@code out}; closing it finishes the stream and closes out. */
+    public OutputStream wrap(OutputStream out, String encoding) throws IOException {
+        boolean gzip = GZIP.equals(encoding);
+        BlockingQueue<Deflater> pool = gzip ? rawPool : zlibPool;
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, gzip);
+        }
+        if (gzip) {
+            out.write(GZIP_HEADER);
+            return new GzipStream(out, deflater, pool);
+        }
+        return new PooledDeflaterStream(out, deflater, pool);
+    }
+
+    private static void giveBack(Deflater deflater, BlockingQueue<Deflater> pool) {
+        deflater.reset();
+        if (!pool.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static class PooledDeflaterStream extends DeflaterOutputStream {
+        private final BlockingQueue<Deflater> pool;
+        private boolean closed;
+
+        PooledDeflaterStream(OutputStream out, Deflater deflater, BlockingQueue<Deflater> pool) {
+            super(out, deflater, 8192);
+            this.pool = pool;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                finish();
+                out.close();
+            } finally {
+                giveBack(def, pool);
+            }
+        }
+    }
+
+    // gzip member: fixed header, raw deflate data, then CRC-32 and length of the input
+    private static class GzipStream extends FilterOutputStream {
+        private final CRC32 crc = new CRC32();
+        private final PooledDeflaterStream deflate;
+        private long size;
+        private boolean closed;
+
+        GzipStream(OutputStream out, Deflater deflater, BlockingQueue<Deflater> pool) {
+            super(out);
+            this.deflate = new PooledDeflaterStream(new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    // trailer still to come
+                }
+            }, deflater, pool);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            deflate.write(b, off, len);
+            crc.update(b, off, len);
+            size += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            deflate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            deflate.close();
+            writeIntLe((int) crc.getValue());
+            writeIntLe((int) size);
+            out.close();
+        }
+
+        private void writeIntLe(int v) throws IOException {
+            out.write(new byte[] {(byte) v, (byte) (v >> 8), (byte) (v >> 16), (byte) (v >> 24)});
+        }
+    }
+}
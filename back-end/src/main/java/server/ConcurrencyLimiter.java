@@ -0,0 +1,99 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AIMD limit on concurrently executing requests.
+ *
+ * While handler latency stays under the target the limit creeps up by roughly one per
+ * window of completed requests. When a request comes back slower than the target the
+ * limit is cut multiplicatively, at most once per target interval so one slow burst
+ * does not collapse it to the floor. Requests over the limit are refused up front
+ * instead of queueing behind a slow Mongo.
+ */
+public class ConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final double backoffRatio;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile int limit;
+
+    // guarded by this
+    private double estimatedLimit;
+    private long lastDecreaseNanos;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                              long targetLatencyMillis, double backoffRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.targetLatencyNanos = targetLatencyMillis * 1_000_000L;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.estimatedLimit = this.limit;
+        this.lastDecreaseNanos = System.nanoTime() - targetLatencyNanos;
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Releases a permit and feeds the request's latency into the limit. */
+    public void release(long latencyNanos) {
+        int inFlightAtRelease = inFlight.getAndDecrement();
+        adjust(latencyNanos, inFlightAtRelease);
+    }
+
+    /**
+     * Releases a permit for a request that timed out or found no thread to run on; treated
+     * like an overload signal. Requests failing for other reasons go through {@link #release}.
+     */
+    public void releaseDropped() {
+        inFlight.getAndDecrement();
+        adjust(Long.MAX_VALUE, limit);
+    }
+
+    /** Gives back a permit for a request that never ran (e.g. its bulkhead was full). */
+    public void cancel() {
+        inFlight.getAndDecrement();
+    }
+
+    private synchronized void adjust(long latencyNanos, int inFlightAtRelease) {
+        long now = System.nanoTime();
+        if (latencyNanos > targetLatencyNanos) {
+            if (now - lastDecreaseNanos >= targetLatencyNanos) {
+                estimatedLimit = Math.max(minLimit, estimatedLimit * backoffRatio);
+                lastDecreaseNanos = now;
+            }
+        } else if (inFlightAtRelease * 2 >= limit) {
+            // only grow when we are actually using the current limit
+            estimatedLimit = Math.min(maxLimit, estimatedLimit + 1.0 / estimatedLimit);
+        }
+        limit = (int) estimatedLimit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+}
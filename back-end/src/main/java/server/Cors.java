@@ -0,0 +1,47 @@
+package server;
+
+import config.AppConfig;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+// CORS headers for the front-end origins in cors.allowed.origins; shared by both HTTP engines
+final class Cors {
+
+    // "*" allows any origin (still echoed back, since credentials are allowed)
+    static final Set<String> ALLOWED_ORIGINS = Set.copyOf(AppConfig.get()
+            .getList("cors.allowed.origins", List.of("http://localhost:3000")));
+
+    private Cors() {
+    }
+
+    // The request's Origin when it may read the response, otherwise null (no CORS headers)
+    static String allowedOrigin(String origin) {
+        if (origin == null) {
+            return null;
+        }
+        return ALLOWED_ORIGINS.contains(origin) || ALLOWED_ORIGINS.contains("*") ? origin : null;
+    }
+
+    static void addResponseHeaders(String origin, BiConsumer<String, String> headers) {
+        String allowed = allowedOrigin(origin);
+        if (allowed != null) {
+            headers.accept("Access-Control-Allow-Origin", allowed);
+            headers.accept("Access-Control-Allow-Credentials", "true");
+        }
+        headers.accept("Vary", "Origin");
+    }
+
+    static void addPreflightHeaders(String origin, BiConsumer<String, String> headers) {
+        String allowed = allowedOrigin(origin);
+        if (allowed != null) {
+            headers.accept("Access-Control-Allow-Origin", allowed);
+            headers.accept("Access-Control-Allow-Credentials", "true");
+        }
+        headers.accept("Vary", "Origin");
+        headers.accept("Access-Control-Allow-Methods", "GET,POST,PUT,DELETE,OPTIONS");
+        headers.accept("Access-Control-Allow-Headers",
+                "Content-Type, Cookie, Authorization, Idempotency-Key");
+    }
+}
@@ -0,0 +1,78 @@
+package server;
+
+import handler.UserChanges;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Strong validators for the polled list routes.
+ *
+ * <p>In version mode the tag is derived from {@link UserChanges} before the handler runs, so a
+ * matching If-None-Match is answered 304 without touching Mongo. The boot id keeps tags from
+ * a previous process from matching. When several processes serve the port their versions
+ * diverge, so hash mode tags the serialized body instead: still a 304 with no body on the
+ * wire, but the query runs. Streamed bodies get no tag in hash mode.
+ */
+public class ETags {
+
+    private final boolean hashBodies;
+    private final String bootId = Long.toString(System.currentTimeMillis(), 36);
+
+    public ETags(boolean hashBodies) {
+        this.hashBodies = hashBodies;
+    }
+
+    public boolean hashesBodies() {
+        return hashBodies;
+    }
+
+    public String versionTag(String userName) {
+        return "\"" + bootId + "-" + UserChanges.generation() + "-"
+                + UserChanges.version(userName) + "-"
+                + Integer.toHexString(userName.hashCode()) + "\"";
+    }
+
+    public static String bodyTag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(Arrays.copyOf(digest, 16)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Compressed bodies are different bytes, so they get their own strong tag
+    public static String withEncoding(String etag, String encoding) {
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    /** If-None-Match check; ignores W/ and the encoding suffix the engines append. */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            for (String encoding : new String[] {Compression.GZIP, Compression.DEFLATE}) {
+                String suffix = "-" + encoding + "\"";
+                if (tag.endsWith(suffix)) {
+                    tag = tag.substring(0, tag.length() - suffix.length()) + "\"";
+                }
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,64 @@
+package server;
+
+import com.sun.net.httpserver.HttpServer;
+import dao.MongoConnection;
+
+import java.util.List;
+
+/**
+ * Shutdown hook: stop taking new work, let requests already in the pipeline finish (a
+ * transfer must not stop between its two account writes), then close the listeners and the
+ * Mongo client.
+ */
+public class GracefulShutdown implements Runnable {
+
+    private final RequestPipeline pipeline;
+    private final List<NioHttpEngine> engines; // empty on the jdk engine
+    private final HttpServer server;           // null on the nio engine
+    private final ChangeEvents events;         // null when /events is off
+    private final long drainMillis;
+
+    public GracefulShutdown(RequestPipeline pipeline, List<NioHttpEngine> engines,
+                            HttpServer server, ChangeEvents events, long drainMillis) {
+        this.pipeline = pipeline;
+        this.engines = engines;
+        this.server = server;
+        this.events = events;
+        this.drainMillis = drainMillis;
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.currentTimeMillis() + drainMillis;
+        System.out.println("Shutting down, draining " + pipeline.getInFlight()
+                + " in-flight requests (up to " + drainMillis + " ms)");
+        pipeline.startDraining();
+        if (events != null) {
+            // streams never finish on their own; clients reconnect to another instance
+            events.closeAll();
+        }
+        // HttpServer has no separate "stop accepting", and its stop() may sit out its whole delay
+        // once idle, so its listener stays open until the drain is over; requests arriving
+        // meanwhile are turned away by the draining pipeline
+        engines.forEach(NioHttpEngine::stopAccepting);
+        // requests already submitted finish, database writes included
+        boolean drained;
+        try {
+            drained = pipeline.awaitIdle(Math.max(0, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        if (!drained) {
+            System.out.println("Drain timed out with " + pipeline.getInFlight()
+                    + " requests still running");
+        }
+        engines.forEach(NioHttpEngine::stop);
+        if (server != null) {
+            // nothing left to wait for: drained, or out of time
+            server.stop(0);
+        }
+        MongoConnection.close();
+        System.out.println("Server stopped");
+    }
+}
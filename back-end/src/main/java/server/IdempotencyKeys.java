@@ -0,0 +1,275 @@
+package server;
+
+import dao.Deadline;
+import dao.IdempotencyDao;
+import handler.StatusCodes;
+import org.bson.Document;
+import request.ParsedRequest;
+import response.HttpResponseBuilder;
+import response.RestApiAppResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Idempotency-Key support for the money routes: a retried deposit, withdrawal or transfer gets
+ * the first attempt's answer instead of moving the money again.
+ *
+ * <p>The key is scoped to the user; the method, path and body are fingerprinted, so reusing a
+ * key for a different request is refused (422). While the first attempt runs, a retry gets 409.
+ * Answers below 500 are kept, in a bounded in-memory map and in {@link IdempotencyDao} so
+ * other instances and restarts see them. A 5xx or an exception frees the key for a retry only
+ * if the request had not started writing (see {@link Deadline#isCommitted()}); otherwise the
+ * key is kept as failed and a retry gets that failure rather than moving money twice.
+ * Replays never reach the handler, so they do not touch accounts or goals.
+ */
+public class IdempotencyKeys {
+
+    public static final String HEADER = "Idempotency-Key";
+    static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    static final int MAX_KEY_LENGTH = 255;
+
+    private static final byte[] FAILED_AFTER_WRITE = HttpResponseBuilder.render(
+            new RestApiAppResponse<>(false, "The first request with this " + HEADER
+                    + " failed after it had started changing data, so it is not run again;"
+                    + " check the outcome before retrying with a new key"));
+
+    private record Outcome(String fingerprint, String status, byte[] body, long storedAt) {
+    }
+
+    private final IdempotencyDao dao;
+    private final long ttlNanos;
+    private final long leaseMillis;
+    private final Map<String, Outcome> done;
+    // keys whose first attempt is running on this instance
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder failedAfterWrite = new LongAdder();
+
+    /**
+     * @param dao         shared store; null keeps outcomes in this process only
+     * @param leaseMillis how old another instance's unfinished attempt must be before it is
+     *                    presumed dead and the key taken over
+     */
+    public IdempotencyKeys(IdempotencyDao dao, int cacheSize, long ttlSeconds, long leaseMillis) {
+        this.dao = dao;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.leaseMillis = leaseMillis;
+        int max = Math.max(1, cacheSize);
+        this.done = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Outcome> eldest) {
+                return size() > max;
+            }
+        };
+    }
+
+    /**
+     * Runs the handler once per key, or answers from the stored outcome. Requests without the
+     * header go straight to the handler.
+     */
+    public HttpResponseBuilder execute(String userName, ParsedRequest req,
+                                       Supplier<HttpResponseBuilder> handler) {
+        String key = req.getHeaderValue(HEADER);
+        if (key == null) {
+            return handler.get();
+        }
+        key = key.trim();
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            return error(StatusCodes.BAD_REQUEST,
+                    HEADER + " must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        String id = userName + ":" + key;
+        String fingerprint = fingerprint(req);
+
+        Outcome known = cached(id);
+        if (known != null) {
+            return replay(known, fingerprint);
+        }
+        if (!running.add(id)) {
+            return inProgress();
+        }
+        try {
+            // the previous attempt may have finished between the lookup and the add
+            known = cached(id);
+            if (known != null) {
+                return replay(known, fingerprint);
+            }
+            if (dao != null) {
+                HttpResponseBuilder earlier = reserve(id, fingerprint);
+                if (earlier != null) {
+                    return earlier;
+                }
+            }
+            Deadline deadline = Deadline.current();
+            if (dao != null && deadline != null) {
+                // from here on no other instance may take the key over
+                deadline.onFirstWrite(() -> dao.markWriting(id));
+            }
+            HttpResponseBuilder resp;
+            try {
+                resp = handler.get();
+            } catch (RuntimeException e) {
+                settleFailure(id, fingerprint, deadline);
+                throw e;
+            }
+            if (resp.getStatusCode() >= 500) {
+                settleFailure(id, fingerprint, deadline);
+                return resp;
+            }
+            byte[] body = resp.serializeBody();
+            resp.setRenderedBody(body);
+            store(id, new Outcome(fingerprint, resp.getStatus(), body, System.nanoTime()),
+                    IdempotencyDao.DONE);
+            return resp;
+        } finally {
+            running.remove(id);
+        }
+    }
+
+    // Frees the key for a retry, unless the request may already have changed data
+    private void settleFailure(String id, String fingerprint, Deadline deadline) {
+        if (deadline != null && deadline.isCommitted()) {
+            failedAfterWrite.increment();
+            store(id, new Outcome(fingerprint, StatusCodes.SERVER_ERROR, FAILED_AFTER_WRITE,
+                    System.nanoTime()), IdempotencyDao.FAILED);
+        } else {
+            release(id);
+        }
+    }
+
+    // Claims the key in Mongo; an answer if it was already used, null if this request owns it
+    private HttpResponseBuilder reserve(String id, String fingerprint) {
+        if (dao.reserve(id, fingerprint)) {
+            return null;
+        }
+        Document doc = dao.find(id);
+        if (doc == null) {
+            // expired between the insert and the read; rare enough to just ask for a retry
+            return inProgress();
+        }
+        String state = doc.getString("state");
+        if (IdempotencyDao.DONE.equals(state) || IdempotencyDao.FAILED.equals(state)) {
+            Outcome outcome = new Outcome(doc.getString("fingerprint"), doc.getString("status"),
+                    doc.getString("body") == null ? new byte[0]
+                            : doc.getString("body").getBytes(StandardCharsets.UTF_8),
+                    System.nanoTime());
+            synchronized (done) {
+                done.put(id, outcome);
+            }
+            return replay(outcome, fingerprint);
+        }
+        if (!fingerprint.equals(doc.getString("fingerprint"))) {
+            mismatches.increment();
+            return mismatch();
+        }
+        // a reservation that started writing is never taken over: 409 until it expires
+        return dao.takeOver(id, fingerprint, leaseMillis) ? null : inProgress();
+    }
+
+    private Outcome cached(String id) {
+        synchronized (done) {
+            Outcome o = done.get(id);
+            if (o != null && System.nanoTime() - o.storedAt > ttlNanos) {
+                done.remove(id);
+                return null;
+            }
+            return o;
+        }
+    }
+
+    private void store(String id, Outcome outcome, String state) {
+        synchronized (done) {
+            done.put(id, outcome);
+        }
+        stored.increment();
+        if (dao != null) {
+            try {
+                dao.complete(id, state, outcome.status,
+                        new String(outcome.body, StandardCharsets.UTF_8));
+            } catch (RuntimeException e) {
+                // the money has moved; this instance still replays, others see "running"
+                // and, as it is marked as written, answer 409 instead of running it again
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void release(String id) {
+        if (dao != null) {
+            try {
+                dao.release(id);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private HttpResponseBuilder replay(Outcome outcome, String fingerprint) {
+        if (!outcome.fingerprint.equals(fingerprint)) {
+            mismatches.increment();
+            return mismatch();
+        }
+        replays.increment();
+        return new HttpResponseBuilder().setStatus(outcome.status)
+                .setHeader(REPLAYED_HEADER, "true")
+                .setRenderedBody(outcome.body);
+    }
+
+    private HttpResponseBuilder inProgress() {
+        conflicts.increment();
+        return error(StatusCodes.CONFLICT, "A request with this " + HEADER + " is in progress")
+                .setHeader("Retry-After", RequestPipeline.RETRY_AFTER_SECONDS);
+    }
+
+    private static HttpResponseBuilder mismatch() {
+        return error(StatusCodes.UNPROCESSABLE_ENTITY,
+                HEADER + " was already used for a different request");
+    }
+
+    private static HttpResponseBuilder error(String status, String message) {
+        return new HttpResponseBuilder().setStatus(status)
+                .setBody(new RestApiAppResponse<>(false, message));
+    }
+
+    static String fingerprint(ParsedRequest req) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update((req.getMethod() + " " + req.getPath() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            String body = req.getBody();
+            if (body != null) {
+                md.update(body.getBytes(StandardCharsets.UTF_8));
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        synchronized (done) {
+            s.put("cached", done.size());
+        }
+        s.put("running", running.size());
+        s.put("stored", stored.sum());
+        s.put("replays", replays.sum());
+        s.put("conflicts", conflicts.sum());
+        s.put("mismatches", mismatches.sum());
+        s.put("failedAfterWrite", failedAfterWrite.sum());
+        return s;
+    }
+}
@@ -0,0 +1,46 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import handler.GsonTool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * GET /metrics - JSON snapshot of the server's internal gauges (limiter, bulkhead queues, ...).
+ * Only answers loopback clients; it is meant for an operator on the box, not the front-end.
+ */
+public class MetricsHandler implements HttpHandler {
+
+    private static final Map<String, Supplier<Object>> SOURCES = new ConcurrentHashMap<>();
+
+    public static void register(String name, Supplier<Object> source) {
+        SOURCES.put(name, source);
+    }
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        SOURCES.keySet().stream().sorted().forEach(k -> out.put(k, SOURCES.get(k).get()));
+        return out;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRemoteAddress().getAddress().isLoopbackAddress()) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = GsonTool.GSON.toJson(snapshot()).getBytes();
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(body);
+        os.close();
+    }
+}
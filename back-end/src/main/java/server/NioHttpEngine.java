@@ -0,0 +1,847 @@
+package server;
+
+import dao.Deadline;
+import handler.AuthFilter;
+import handler.GsonTool;
+import handler.HandlerFactory;
+import handler.StatusCodes;
+import request.HttpRequestDecoder;
+import request.MalformedRequestException;
+import request.ParsedRequest;
+import response.HttpResponseBuilder;
+import response.RestApiAppResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Alternative to com.sun.net.httpserver: one selector thread doing non-blocking accept, read
+ * and write, with requests decoded by {@link HttpRequestDecoder} and executed through the shared
+ * {@link RequestPipeline} on worker threads.
+ *
+ * <p>Connections are HTTP/1.1 keep-alive by default. Pipelined requests are buffered and
+ * answered strictly in order, one at a time per connection. Reads go into a per-connection
+ * direct buffer; writes hand a connection's queued buffers (response head, body, mapped file)
+ * to the socket in one gathering write. Anything that may block, including static-file lookup,
+ * runs on other threads and hands its result back through a queue. A streamed body goes out
+ * with chunked transfer encoding, one bounded chunk at a time.
+ */
+public class NioHttpEngine {
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n"
+            .getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    public static class Options {
+        public int backlog = 128;
+        public int readBufferBytes = 16 * 1024;
+        public int gatherBuffers = 16;      // buffers handed to one gathering write
+        public int chunkBytes = 16 * 1024;  // largest chunk of a streamed body
+        public int maxHeaderBytes = 16 * 1024;
+        public int maxBodyBytes = 1024 * 1024;
+        public int socketReceiveBuffer = 0; // 0 keeps the OS default
+        public int socketSendBuffer = 0;
+        public int acceptBatch = 64;        // connections accepted per wake-up
+        public long idleTimeoutMillis = 30_000;
+        public boolean reusePort = false;
+        public Compression compression;     // null disables response compression
+        public StaticFiles staticFiles;     // null serves the API only
+        public ChangeEvents events;         // null: no GET /events stream
+    }
+
+    // push: more of an event stream or streamed body from that sink; the connection stays busy
+    private record Completion(Connection conn, ByteBuffer[] data, boolean close, PushSink push) {
+    }
+
+    private final String name;
+    private final InetSocketAddress address;
+    private final RequestPipeline pipeline;
+    private final Options options;
+
+    private final Queue<Completion> completions = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer[] gather; // selector thread only
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread loopThread;
+    private volatile boolean running;
+    private volatile boolean draining;
+
+    public NioHttpEngine(String name, InetSocketAddress address, RequestPipeline pipeline,
+                         Options options) {
+        this.name = name;
+        this.address = address;
+        this.pipeline = pipeline;
+        this.options = options;
+        this.gather = new ByteBuffer[Math.max(1, options.gatherBuffers)];
+    }
+
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        if (options.reusePort) {
+            if (!serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                serverChannel.close();
+                throw new IOException("SO_REUSEPORT is not supported on this platform");
+            }
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        if (options.socketReceiveBuffer > 0) {
+            // set before bind so accepted sockets inherit it (window scaling is negotiated early)
+            serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, options.socketReceiveBuffer);
+        }
+        serverChannel.bind(address, options.backlog);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        loopThread = new Thread(this::loop, name);
+        loopThread.start();
+    }
+
+    /**
+     * Closes the listening socket so new connections go to the other listeners (or are
+     * refused), and closes keep-alive connections as soon as they are idle. Requests already
+     * read keep being answered until {@link #stop()}.
+     */
+    public void stopAccepting() {
+        draining = true;
+        try {
+            serverChannel.close(); // its key is cancelled on the next select
+        } catch (IOException ignore) {
+            // not accepting either way
+        }
+        selector.wakeup();
+    }
+
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void loop() {
+        long lastSweep = System.currentTimeMillis();
+        while (running) {
+            try {
+                selector.select(1000);
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Completion done;
+                while ((done = completions.poll()) != null) {
+                    if (done.push != null) {
+                        done.conn.onPushed(done.push, done.data);
+                    } else {
+                        done.conn.onCompleted(done.data, done.close);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+                long now = System.currentTimeMillis();
+                if (draining || now - lastSweep >= 1000) {
+                    closeIdle(now);
+                    lastSweep = now;
+                }
+            } catch (IOException e) {
+                System.out.println(name + ": selector error " + e.getMessage());
+            }
+        }
+        closeAll();
+    }
+
+    private void handleKey(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        Connection conn = null;
+        try {
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+            conn = (Connection) key.attachment();
+            if (key.isReadable()) {
+                conn.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                conn.onWritable();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        for (int i = 0; i < options.acceptBatch; i++) {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (options.socketSendBuffer > 0) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, options.socketSendBuffer);
+            }
+            Connection conn = new Connection(channel);
+            conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+        }
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            // when draining, a connection between requests is closed right away; one with a
+            // partial request buffered still gets the usual timeout
+            if (key.attachment() instanceof Connection conn && conn.isIdle()
+                    && (draining && conn.in.position() == 0
+                        || now - conn.lastActive > options.idleTimeoutMillis)) {
+                conn.close();
+            }
+        }
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection conn) {
+                    conn.close();
+                }
+            }
+            serverChannel.close();
+            selector.close();
+        } catch (IOException ignore) {
+            // shutting down anyway
+        }
+    }
+
+    // Called from worker threads; the selector thread does the actual write
+    private void complete(Connection conn, ByteBuffer[] data, boolean close) {
+        completions.add(new Completion(conn, data, close, null));
+        selector.wakeup();
+    }
+
+    // Called from worker threads for work that touches selector-thread state
+    private void runOnLoop(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * An event stream or a streamed body on one connection. A send waits until the previous
+     * one has reached the socket, so a client that stops reading holds back only its own
+     * stream, and is dropped after the idle timeout.
+     */
+    private final class PushSink implements ChangeEvents.Sink {
+        final Connection conn;
+        final Semaphore writable = new Semaphore(1);
+        volatile boolean closed;
+
+        PushSink(Connection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public void send(byte[] data) throws IOException {
+            try {
+                if (!writable.tryAcquire(options.idleTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("Event stream client is not reading");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            completions.add(new Completion(conn, new ByteBuffer[] {ByteBuffer.wrap(data)},
+                    false, this));
+            selector.wakeup();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                complete(conn, new ByteBuffer[0], true);
+            }
+        }
+    }
+
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in;
+        final HttpRequestDecoder decoder = new HttpRequestDecoder(options.maxHeaderBytes);
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        boolean busy;            // a request from this connection is in the pipeline
+        boolean closeAfterWrite;
+        boolean continueSent;
+        boolean closed;
+        Deadline request;        // of the request in the pipeline, cancelled if the client leaves
+        PushSink push;           // set while this connection streams events
+        boolean pushPending;     // an event is queued in out; release the sink once written
+        long lastActive = System.currentTimeMillis();
+        String clientAddress;    // the peer's IP, looked up for the first request
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.in = ByteBuffer.allocateDirect(
+                    Math.max(options.readBufferBytes, options.maxHeaderBytes));
+        }
+
+        boolean isIdle() {
+            return !busy && out.isEmpty();
+        }
+
+        void onReadable() throws IOException {
+            int n = channel.read(in);
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            if (!in.hasRemaining()) {
+                // buffer full behind a busy request; stop reading until it is answered
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            parseNext();
+        }
+
+        // Buffer is kept in write mode (ready for channel.read) between calls. The decoder
+        // remembers a head that is complete while its body is still arriving
+        void parseNext() throws IOException {
+            while (!busy && !closed && !closeAfterWrite) {
+                in.flip();
+                HttpRequestDecoder.Head head;
+                int contentLength;
+                try {
+                    head = decoder.decodeHead(in);
+                    if (head == null) {
+                        in.compact();
+                        return;
+                    }
+                    if (head.header("Transfer-Encoding") != null) {
+                        in.compact();
+                        sendError("411 Length Required",
+                                "Chunked request bodies are not supported");
+                        return;
+                    }
+                    long declared = head.contentLength();
+                    // refuse before buffering anything past the route's limit
+                    if (declared > Math.min(options.maxBodyBytes,
+                            pipeline.maxBodyBytes(head.path()))) {
+                        in.compact();
+                        sendError(StatusCodes.PAYLOAD_TOO_LARGE, "Request body too large");
+                        return;
+                    }
+                    contentLength = (int) declared;
+                } catch (MalformedRequestException e) {
+                    in.compact();
+                    sendError(e.isTooLarge() ? "431 Request Header Fields Too Large"
+                            : StatusCodes.BAD_REQUEST, e.getMessage());
+                    return;
+                }
+
+                ByteBuffer body = decoder.decodeBody(in, contentLength);
+                if (body == null) {
+                    int total = head.length() + contentLength;
+                    if (in.capacity() < total) {
+                        ByteBuffer bigger = ByteBuffer.allocateDirect(total);
+                        bigger.put(in);
+                        in = bigger;
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    } else {
+                        in.compact();
+                    }
+                    if (!continueSent && "100-continue".equalsIgnoreCase(head.header("Expect"))) {
+                        continueSent = true;
+                        out.add(ByteBuffer.wrap(CONTINUE));
+                        onWritable();
+                    }
+                    return;
+                }
+                in.compact();
+                continueSent = false;
+                ParsedRequest req = head.toRequest();
+                req.setBodyStream(new ByteArrayInputStream(body.array()), contentLength);
+                req.setClientAddress(clientAddress());
+                dispatch(req, head.version());
+            }
+        }
+
+        void dispatch(ParsedRequest req, String version) {
+            String connection = req.getHeaderValue("Connection");
+            boolean keepAlive = version.endsWith("HTTP/1.0")
+                    ? "keep-alive".equalsIgnoreCase(connection)
+                    : !"close".equalsIgnoreCase(connection);
+            boolean headOnly = "HEAD".equalsIgnoreCase(req.getMethod());
+            // an HTTP/1.0 client gets a streamed body undelimited, ended by closing
+            boolean chunked = !version.endsWith("HTTP/1.0");
+            String encoding = options.compression == null ? null
+                    : options.compression.negotiate(req.getHeaderValue("Accept-Encoding"));
+            String origin = req.getHeaderValue("Origin");
+
+            if ("OPTIONS".equalsIgnoreCase(req.getMethod())) {
+                var head = new ResponseHead(204, "No Content");
+                Cors.addPreflightHeaders(origin, head::add);
+                out.add(ByteBuffer.wrap(head.connection(keepAlive).toBytes()));
+                closeAfterWrite = !keepAlive;
+                try {
+                    onWritable();
+                } catch (IOException e) {
+                    close();
+                }
+                return;
+            }
+
+            if ("/metrics".equals(req.getPath()) && isLoopback()) {
+                HttpResponseBuilder resp = new HttpResponseBuilder().setStatus(StatusCodes.OK)
+                        .setBody(GsonTool.GSON.toJson(MetricsHandler.snapshot()));
+                for (ByteBuffer b : encode(resp, keepAlive, headOnly, encoding, origin)) {
+                    out.add(b);
+                }
+                closeAfterWrite = !keepAlive;
+                try {
+                    onWritable();
+                } catch (IOException e) {
+                    close();
+                }
+                return;
+            }
+
+            if (options.events != null && ChangeEvents.PATH.equals(req.getPath())
+                    && "GET".equalsIgnoreCase(req.getMethod()) && !pipeline.isDraining()) {
+                busy = true;
+                // the auth lookup reads Mongo, which the selector thread must never wait on
+                Thread.ofVirtual().start(() -> subscribe(req, keepAlive, origin));
+                return;
+            }
+
+            busy = true;
+            if (options.staticFiles != null && !HandlerFactory.hasRoute(req.getPath())) {
+                // the lookup and mapping touch the disk, which the selector thread must not wait
+                // on; a path with no file comes back here for the API's 404
+                Thread.ofVirtual().start(() -> {
+                    boolean served;
+                    try {
+                        served = serveStatic(req, keepAlive);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        complete(this, new ByteBuffer[0], true);
+                        return;
+                    }
+                    if (!served) {
+                        runOnLoop(() -> {
+                            if (!closed) {
+                                submit(req, keepAlive, headOnly, chunked, encoding, origin);
+                            }
+                        });
+                    }
+                });
+                return;
+            }
+            submit(req, keepAlive, headOnly, chunked, encoding, origin);
+        }
+
+        // Selector thread: hands the request to the pipeline; busy is already set
+        void submit(ParsedRequest req, boolean keepAlive, boolean headOnly, boolean chunked,
+                    String encoding, String origin) {
+            request = pipeline.submit(req.getPath(), () -> req, new RequestPipeline.Responder() {
+                @Override
+                public void respond(HttpResponseBuilder response) {
+                    // while draining, the client reconnects for its next request
+                    boolean reuse = keepAlive && !pipeline.isDraining();
+                    int code = response.getStatusCode();
+                    if (response.isStreaming() && code != 204 && code != 304) {
+                        stream(response, reuse && chunked, headOnly, chunked, encoding, origin);
+                        return;
+                    }
+                    ByteBuffer[] data;
+                    try {
+                        data = encode(response, reuse, headOnly, encoding, origin);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        complete(Connection.this, new ByteBuffer[0], true);
+                        return;
+                    }
+                    complete(Connection.this, data, !reuse);
+                }
+
+                @Override
+                public void abort() {
+                    complete(Connection.this, new ByteBuffer[0], true);
+                }
+            });
+        }
+
+        // Worker thread: the body is written as the handler produces it, each chunk waiting for
+        // the one before to reach the socket, so memory stays at a chunk however long it is
+        void stream(HttpResponseBuilder resp, boolean keepAlive, boolean headOnly,
+                    boolean chunked, String encoding, String origin) {
+            Compression compression = options.compression;
+            boolean compressed = !headOnly && encoding != null && compression != null
+                    && compression.shouldCompress(resp, -1);
+            ResponseHead head = head(resp, encoding, compressed, origin);
+            if (chunked) {
+                head.add("Transfer-Encoding", "chunked");
+            }
+            byte[] headBytes = head.connection(keepAlive).toBytes();
+            if (headOnly) {
+                complete(this, new ByteBuffer[] {ByteBuffer.wrap(headBytes)}, !keepAlive);
+                return;
+            }
+            var sink = new PushSink(this);
+            try {
+                sink.send(headBytes);
+                var body = new BodyOutput(sink, chunked);
+                try (OutputStream out = compressed ? compression.wrap(body, encoding) : body) {
+                    resp.writeBody(out);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!(e instanceof IOException)) {
+                    e.printStackTrace();
+                }
+                // too late for an error status; a cut-off body tells the client it failed
+                complete(this, new ByteBuffer[0], true);
+                return;
+            }
+            complete(this, chunked ? new ByteBuffer[] {ByteBuffer.wrap(LAST_CHUNK)}
+                    : new ByteBuffer[0], !keepAlive);
+        }
+
+        // Worker thread: answers 401, or sends the stream's headers and hands it to the hub
+        void subscribe(ParsedRequest req, boolean keepAlive, String origin) {
+            AuthFilter.AuthResult auth;
+            try {
+                auth = AuthFilter.doFilter(req);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                HttpResponseBuilder resp = new HttpResponseBuilder()
+                        .setStatus(StatusCodes.SERVER_ERROR)
+                        .setBody(new RestApiAppResponse<>(false, "Internal server error"));
+                complete(this, encode(resp, false, false, null, origin), true);
+                return;
+            }
+            if (!auth.isLoggedIn) {
+                HttpResponseBuilder resp = new HttpResponseBuilder()
+                        .setStatus(StatusCodes.UNAUTHORIZED);
+                complete(this, encode(resp, keepAlive, false, null, origin), !keepAlive);
+                return;
+            }
+            var head = new ResponseHead(200, "OK");
+            Cors.addResponseHeaders(origin, head::add);
+            // no length: the stream ends when the connection does
+            head.add("Content-Type", "text/event-stream").add("Cache-Control", "no-cache")
+                    .add("X-Accel-Buffering", "no").connection(false);
+            PushSink sink = new PushSink(this);
+            try {
+                sink.send(head.toBytes());
+            } catch (IOException e) {
+                return;
+            }
+            options.events.subscribe(auth.userName, sink);
+        }
+
+        // Selector thread: the first push also ties the sink to this connection's lifetime
+        void onPushed(PushSink sink, ByteBuffer[] data) {
+            if (closed) {
+                sink.closed = true;
+                sink.writable.release();
+                return;
+            }
+            push = sink;
+            for (ByteBuffer b : data) {
+                out.add(b);
+            }
+            pushPending = true;
+            lastActive = System.currentTimeMillis();
+            try {
+                onWritable();
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+
+        // Worker thread: a front-end file's headers, then the mapped file itself, handed to the
+        // selector thread to write; false if there is no such file
+        boolean serveStatic(ParsedRequest req, boolean keepAlive) {
+            StaticFiles.Response file;
+            try {
+                file = options.staticFiles.serve(req.getMethod(), req.getPath(),
+                        req.getHeaderValue("Accept"), req.getHeaderValue("Accept-Encoding"),
+                        req.getHeaderValue("If-None-Match"));
+            } catch (IOException e) {
+                return false; // unreadable; the API answers 404
+            }
+            if (file == null) {
+                return false;
+            }
+            // while draining, the client reconnects for its next request
+            boolean reuse = keepAlive && !pipeline.isDraining();
+            var head = new ResponseHead(file.status(),
+                    file.status() == 304 ? "Not Modified" : "OK");
+            file.headers().forEach(head::add);
+            ByteBuffer headBuf = ByteBuffer.wrap(head.connection(reuse).toBytes());
+            complete(this, file.body() == null ? new ByteBuffer[] {headBuf}
+                    : new ByteBuffer[] {headBuf, file.body()}, !reuse);
+            return true;
+        }
+
+        // Selector thread: a worker finished this connection's request
+        void onCompleted(ByteBuffer[] data, boolean close) {
+            if (closed) {
+                return;
+            }
+            for (ByteBuffer b : data) {
+                out.add(b);
+            }
+            closeAfterWrite |= close;
+            busy = false;
+            request = null;
+            lastActive = System.currentTimeMillis();
+            try {
+                onWritable();
+                if (!closed) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    parseNext(); // pipelined requests already in the buffer
+                }
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+
+        void onWritable() throws IOException {
+            while (!out.isEmpty()) {
+                // one writev for the head, the body and whatever is queued behind them; mapped
+                // files go out straight from the page cache
+                int n = 0;
+                for (ByteBuffer b : out) {
+                    if (n == gather.length) {
+                        break;
+                    }
+                    gather[n++] = b;
+                }
+                channel.write(gather, 0, n);
+                boolean partial = gather[n - 1].hasRemaining();
+                Arrays.fill(gather, 0, n, null);
+                while (!out.isEmpty() && !out.peek().hasRemaining()) {
+                    out.poll();
+                }
+                if (partial) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (pushPending && push != null) {
+                pushPending = false;
+                push.writable.release();
+            }
+            if (closeAfterWrite && !busy) {
+                close();
+            }
+        }
+
+        void sendError(String status, String message) throws IOException {
+            HttpResponseBuilder resp = new HttpResponseBuilder().setStatus(status)
+                    .setBody(new RestApiAppResponse<>(false, message));
+            for (ByteBuffer b : encode(resp, false, false, null, null)) {
+                out.add(b);
+            }
+            closeAfterWrite = true;
+            onWritable();
+        }
+
+        String clientAddress() {
+            if (clientAddress == null) {
+                try {
+                    if (channel.getRemoteAddress() instanceof InetSocketAddress remote) {
+                        clientAddress = remote.getAddress().getHostAddress();
+                    }
+                } catch (IOException e) {
+                    // closed; the request is answered to nobody anyway
+                }
+            }
+            return clientAddress;
+        }
+
+        boolean isLoopback() {
+            try {
+                return channel.getRemoteAddress() instanceof InetSocketAddress remote
+                        && remote.getAddress().isLoopbackAddress();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (request != null) {
+                // the handler stops at its next read instead of finishing for nobody
+                request.cancel();
+            }
+            if (push != null) {
+                // wakes a sender waiting on the socket; its next send fails and it unsubscribes
+                push.closed = true;
+                push.writable.release();
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+                // already gone
+            }
+        }
+    }
+
+    // Status line and headers as one buffer, body as a second, written together by one
+    // gathering write. Bodies are rendered to bytes here on the worker; the selector thread
+    // never blocks on them
+    ByteBuffer[] encode(HttpResponseBuilder resp, boolean keepAlive, boolean headOnly,
+                        String encoding, String origin) {
+        byte[] body = resp.serializeBody();
+        int code = resp.getStatusCode();
+        Compression compression = options.compression;
+        boolean compressed = encoding != null && compression != null
+                && compression.shouldCompress(resp, body.length);
+        ResponseHead head = head(resp, encoding, compressed, origin);
+        if (compressed) {
+            body = compression.compress(body, encoding);
+        }
+        if (code != 204 && code != 304) {
+            head.add("Content-Length", body.length);
+        }
+        ByteBuffer headerBuf = ByteBuffer.wrap(head.connection(keepAlive).toBytes());
+        if (headOnly || body.length == 0) {
+            return new ByteBuffer[] {headerBuf};
+        }
+        return new ByteBuffer[] {headerBuf, ByteBuffer.wrap(body)};
+    }
+
+    // Everything but the length and Connection, which depend on how the body is sent
+    private ResponseHead head(HttpResponseBuilder resp, String encoding, boolean compressed,
+                              String origin) {
+        int code = resp.getStatusCode();
+        String status = resp.getStatus();
+        String reason = status != null && status.trim().startsWith(code + " ")
+                ? status.trim().substring(String.valueOf(code).length() + 1) : "OK";
+
+        var head = new ResponseHead(code, reason);
+        Cors.addResponseHeaders(origin, head::add);
+        Map<String, String> headers = resp.getHeaders();
+        if (!headers.containsKey("Content-Type")) {
+            head.add("Content-Type", "application/json");
+        }
+        headers.forEach((k, v) -> {
+            if (k.equalsIgnoreCase("Connection")) {
+                return; // written by the caller
+            }
+            head.add(k, compressed && k.equalsIgnoreCase("ETag")
+                    ? ETags.withEncoding(v, encoding) : v);
+        });
+        if (options.compression != null) {
+            head.add("Vary", "Accept-Encoding");
+        }
+        if (compressed) {
+            head.add("Content-Encoding", encoding);
+        }
+        return head;
+    }
+
+    /**
+     * A streamed body on its way to one connection: bytes collect in a buffer of
+     * {@code chunkBytes} and each full one is sent as a chunk (or as is, undelimited). Sends
+     * wait for the previous chunk to be written, so a slow reader slows the handler down.
+     */
+    private final class BodyOutput extends OutputStream {
+        private final PushSink sink;
+        private final boolean chunked;
+        private final byte[] buf = new byte[Math.max(256, options.chunkBytes)];
+        private int count;
+
+        BodyOutput(PushSink sink, boolean chunked) {
+            this.sink = sink;
+            this.chunked = chunked;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buf.length) {
+                send();
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buf.length) {
+                    send();
+                }
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        // the last partial chunk goes out on close; flushes mid-body would only make more
+        @Override
+        public void close() throws IOException {
+            if (count > 0) {
+                send();
+            }
+        }
+
+        private void send() throws IOException {
+            if (!chunked) {
+                sink.send(Arrays.copyOf(buf, count));
+                count = 0;
+                return;
+            }
+            byte[] size = (Integer.toHexString(count) + "\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            byte[] chunk = new byte[size.length + count + 2];
+            System.arraycopy(size, 0, chunk, 0, size.length);
+            System.arraycopy(buf, 0, chunk, size.length, count);
+            chunk[chunk.length - 2] = '\r';
+            chunk[chunk.length - 1] = '\n';
+            sink.send(chunk);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package server;
+
+import handler.RouteClass;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded priority queue in front of the {@link ConcurrencyLimiter}.
+ *
+ * When no permit is free a request waits here instead of being refused outright. Permits
+ * freed by finishing requests go to the highest {@link RouteClass#priority()} first, then
+ * to the oldest arrival. When the queue is full the lowest-priority, newest request is
+ * shed, so polling reads are dropped before money movement. Requests that wait longer
+ * than {@code maxWaitMillis} are shed as well, when a permit frees up or at the latest on the
+ * next {@link #expire()}.
+ */
+public class PriorityAdmission {
+
+    private static final Comparator<Pending> ORDER = Comparator
+            .comparingInt((Pending p) -> -p.routeClass.priority())
+            .thenComparingLong(p -> p.seq);
+
+    private final ConcurrencyLimiter limiter;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    private final Executor deferred;
+
+    private final TreeSet<Pending> queue = new TreeSet<>(ORDER); // guarded by this
+    private final AtomicLong seq = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+
+    private static final class Pending {
+        final RouteClass routeClass;
+        final long seq;
+        final long enqueuedNanos;
+        final Runnable start;
+        final Runnable reject;
+
+        Pending(RouteClass routeClass, long seq, Runnable start, Runnable reject) {
+            this.routeClass = routeClass;
+            this.seq = seq;
+            this.enqueuedNanos = System.nanoTime();
+            this.start = start;
+            this.reject = reject;
+        }
+    }
+
+    /**
+     * @param deferred runs {@code start} for requests that were queued first; requests
+     *                 admitted immediately start on the caller's thread. Null runs it on the
+     *                 thread that freed the permit, for a {@code start} that only hands the
+     *                 request off to another executor
+     */
+    public PriorityAdmission(ConcurrencyLimiter limiter, int maxQueued, long maxWaitMillis,
+                             Executor deferred) {
+        this.limiter = limiter;
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxWaitNanos = maxWaitMillis * 1_000_000L;
+        this.deferred = deferred;
+    }
+
+    /**
+     * Starts the request now, queues it, or rejects it. Exactly one of {@code start} or
+     * {@code reject} is eventually run. A started request must finish with
+     * {@link #release}, {@link #releaseDropped} or {@link #cancel}.
+     */
+    public void admit(RouteClass routeClass, Runnable start, Runnable reject) {
+        Pending pending = new Pending(routeClass, seq.getAndIncrement(), start, reject);
+        boolean startNow = false;
+        Pending victim = null;
+        synchronized (this) {
+            if (queue.isEmpty() && limiter.tryAcquire()) {
+                startNow = true;
+            } else {
+                queue.add(pending);
+                if (queue.size() > maxQueued) {
+                    victim = queue.pollLast();
+                }
+            }
+        }
+        if (startNow) {
+            start.run();
+            return;
+        }
+        if (victim != null) {
+            shed.incrementAndGet();
+            victim.reject.run();
+        }
+        if (victim != pending) {
+            // a permit may have been freed between tryAcquire and enqueue
+            drain();
+        }
+    }
+
+    public void release(long latencyNanos) {
+        limiter.release(latencyNanos);
+        drain();
+    }
+
+    public void releaseDropped() {
+        limiter.releaseDropped();
+        drain();
+    }
+
+    public void cancel() {
+        limiter.cancel();
+        drain();
+    }
+
+    // Hands free permits to queued requests, best first; sheds the ones that waited too long
+    private void drain() {
+        List<Pending> toStart = new ArrayList<>();
+        List<Pending> toReject = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            while (!queue.isEmpty()) {
+                Pending head = queue.first();
+                if (now - head.enqueuedNanos > maxWaitNanos) {
+                    toReject.add(queue.pollFirst());
+                } else if (limiter.tryAcquire()) {
+                    toStart.add(queue.pollFirst());
+                } else {
+                    break;
+                }
+            }
+        }
+        for (Pending p : toReject) {
+            shed.incrementAndGet();
+            p.reject.run();
+        }
+        for (Pending p : toStart) {
+            if (deferred == null) {
+                p.start.run();
+                continue;
+            }
+            try {
+                deferred.execute(p.start);
+            } catch (RejectedExecutionException e) {
+                // the permit goes back unused; the next release hands it on
+                limiter.cancel();
+                shed.incrementAndGet();
+                p.reject.run();
+            }
+        }
+    }
+
+    /**
+     * Sheds every queued request that has waited longer than {@code maxWaitMillis}, wherever
+     * it is in the queue. Run periodically: without it a request behind a long-running head is
+     * only checked once a permit frees up.
+     */
+    public void expire() {
+        List<Pending> toReject = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            queue.removeIf(p -> {
+                if (now - p.enqueuedNanos > maxWaitNanos) {
+                    toReject.add(p);
+                    return true;
+                }
+                return false;
+            });
+        }
+        for (Pending p : toReject) {
+            shed.incrementAndGet();
+            p.reject.run();
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<RouteClass, Integer> queued = new EnumMap<>(RouteClass.class);
+        for (Pending p : queue) {
+            queued.merge(p.routeClass, 1, Integer::sum);
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("queued", queue.size());
+        out.put("queueCapacity", maxQueued);
+        queued.forEach((k, v) -> out.put("queued." + k.name().toLowerCase(), v));
+        out.put("shed", shed.get());
+        return out;
+    }
+}
@@ -0,0 +1,148 @@
+package server;
+
+import handler.RouteClass;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token buckets per client and route class, so one client hammering /login or the list
+ * endpoints runs out of its own budget instead of everyone's capacity.
+ *
+ * <p>Each bucket is a single {@link AtomicLong} holding the time at which it will be full
+ * again (the generic cell rate algorithm): taking a token moves that time one interval
+ * forward with a compare-and-set, and the bucket is empty while it lies more than the burst
+ * ahead of now. No locks, and no refill thread.
+ *
+ * <p>A bucket whose time has passed is full, so dropping it loses nothing: {@link #sweep()},
+ * run periodically, removes those, and memory follows the clients active within the last
+ * burst rather than every client ever seen. Past {@code maxKeys} new clients share one
+ * overflow bucket per route class until a sweep makes room, so flooding the table with
+ * made-up keys throttles the flood rather than lifting the limit.
+ */
+public class RateLimiter {
+
+    /** Sustained rate and burst of one route class; a rate of 0 leaves the class unlimited. */
+    public record Budget(int perMinute, int burst) {
+    }
+
+    private static final class Limits {
+        final long intervalNanos;
+        // how far ahead of now the full-again time may be while a token is left
+        final long toleranceNanos;
+        final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+        final AtomicLong overflow = new AtomicLong(System.nanoTime());
+
+        Limits(Budget budget) {
+            intervalNanos = TimeUnit.MINUTES.toNanos(1) / budget.perMinute();
+            toleranceNanos = (Math.max(1, budget.burst()) - 1) * intervalNanos;
+        }
+    }
+
+    private final Map<RouteClass, Limits> limits = new EnumMap<>(RouteClass.class);
+    private final int maxKeys;
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+
+    public RateLimiter(Map<RouteClass, Budget> budgets, int maxKeys) {
+        budgets.forEach((routeClass, budget) -> {
+            if (budget.perMinute() > 0) {
+                limits.put(routeClass, new Limits(budget));
+            }
+        });
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Takes a token from the client's bucket for the route class.
+     *
+     * @return 0 if the request may go ahead, otherwise the nanoseconds until a token is back
+     */
+    public long tryAcquire(RouteClass routeClass, String client) {
+        return tryAcquire(routeClass, client, System.nanoTime());
+    }
+
+    long tryAcquire(RouteClass routeClass, String client, long now) {
+        Limits l = limits.get(routeClass);
+        if (l == null) {
+            return 0;
+        }
+        AtomicLong bucket = l.buckets.get(client);
+        if (bucket == null) {
+            if (size() >= maxKeys) {
+                overflowed.increment();
+                return take(l, l.overflow, now);
+            }
+            // a new bucket is full; the one taking the first token may be another thread's
+            AtomicLong fresh = new AtomicLong(now);
+            bucket = l.buckets.putIfAbsent(client, fresh);
+            if (bucket == null) {
+                bucket = fresh;
+            }
+        }
+        return take(l, bucket, now);
+    }
+
+    /** Whether the client's bucket for the route class is empty right now; takes nothing. */
+    public boolean isEmpty(RouteClass routeClass, String client) {
+        Limits l = limits.get(routeClass);
+        AtomicLong bucket = l == null ? null : l.buckets.get(client);
+        return bucket != null && bucket.get() - System.nanoTime() > l.toleranceNanos;
+    }
+
+    private long take(Limits l, AtomicLong bucket, long now) {
+        while (true) {
+            long full = bucket.get();
+            long from = full - now > 0 ? full : now;
+            long wait = from - now - l.toleranceNanos;
+            if (wait > 0) {
+                limited.increment();
+                return wait;
+            }
+            if (bucket.compareAndSet(full, from + l.intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Drops the buckets that are full again; run on a schedule, off the request threads. One
+     * swept while a request is taking from it loses that token; the client gets at most one
+     * extra request.
+     */
+    public void sweep() {
+        sweep(System.nanoTime());
+    }
+
+    void sweep(long now) {
+        for (Limits l : limits.values()) {
+            l.buckets.values().removeIf(bucket -> now - bucket.get() >= 0);
+        }
+    }
+
+    int size() {
+        long n = 0;
+        for (Limits l : limits.values()) {
+            n += l.buckets.mappingCount();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, n);
+    }
+
+    /** Whole seconds to send in Retry-After for a wait from {@link #tryAcquire}, at least 1. */
+    public static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("clients", size());
+        s.put("limited", limited.sum());
+        s.put("overflowed", overflowed.sum());
+        return s;
+    }
+}
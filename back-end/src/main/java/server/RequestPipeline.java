@@ -0,0 +1,496 @@
+package server;
+
+import com.google.gson.JsonParseException;
+import com.mongodb.MongoExecutionTimeoutException;
+import dao.Deadline;
+import dao.DeadlineExceededException;
+import handler.AuthFilter;
+import handler.BatchHandler;
+import handler.HandlerFactory;
+import handler.RouteClass;
+import handler.StatusCodes;
+import request.BodyTooLargeException;
+import request.ParsedRequest;
+import response.HttpResponseBuilder;
+import response.RestApiAppResponse;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Engine-neutral request path: priority admission, optional bulkhead hand-off, the
+ * {@link handler.BaseHandler} call and latency feedback. Both the JDK HttpServer adapter and
+ * {@link NioHttpEngine} feed requests in here and get a finished builder back.
+ */
+public class RequestPipeline {
+
+    static final String RETRY_AFTER_SECONDS = "1";
+
+    // The fixed answers, serialized once; under overload these are most of what is sent
+    private static final byte[] BUSY = HttpResponseBuilder.render(
+            new RestApiAppResponse<>(false, "Server busy, retry shortly"));
+    private static final byte[] SHUTTING_DOWN = HttpResponseBuilder.render(
+            new RestApiAppResponse<>(false, "Server shutting down, retry shortly"));
+    private static final byte[] TIMED_OUT = HttpResponseBuilder.render(
+            new RestApiAppResponse<>(false, "Request timed out"));
+    private static final byte[] MALFORMED_JSON = HttpResponseBuilder.render(
+            new RestApiAppResponse<>(false, "Malformed JSON body"));
+    private static final byte[] RATE_LIMITED = HttpResponseBuilder.render(
+            new RestApiAppResponse<>(false, "Too many requests, retry later"));
+    private static final byte[] INTERNAL_ERROR = HttpResponseBuilder.render(
+            new RestApiAppResponse<>(false, "Internal server error"));
+
+    // Lets a client ask for less time than its route allows (never more), in milliseconds
+    static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+
+    /**
+     * Produces the request once it is admitted. The body should be left unread (see
+     * {@link ParsedRequest#setBodyStream}) so size and auth checks can run first.
+     */
+    public interface RequestReader {
+        ParsedRequest read() throws IOException;
+    }
+
+    /** Receives the outcome; called exactly once, possibly from another thread. */
+    public interface Responder {
+        void respond(HttpResponseBuilder response);
+
+        // the request could not be read; drop the connection
+        void abort();
+    }
+
+    private final PriorityAdmission admission;
+    private final Bulkheads bulkheads;
+    private final Executor executor;
+    private final Map<RouteClass, Integer> bodyLimits;
+    private final Map<RouteClass, Integer> deadlines;
+    private final ETags etags;
+    private final IdempotencyKeys idempotency;
+    private final RateLimiter rateLimiter;
+    private final SingleFlight singleFlight;
+    private final BatchHandler.EntryGate entryGate = this::runEntry;
+
+    // submitted and not yet answered, including requests waiting for admission
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Object idle = new Object();
+    private volatile boolean draining;
+
+    /**
+     * @param executor   where admitted requests run when there are no bulkheads; null runs them
+     *                   on the submitting thread (fine for HttpServer, already on a worker)
+     * @param bodyLimits request body cap per route class; missing classes use the enum default
+     * @param deadlines  time per route class from arrival to answer, 0 for none; missing
+     *                   classes use the enum default
+     * @param etags      conditional GET support for the polled lists; null disables it
+     * @param idempotency Idempotency-Key replay for the money routes; null disables it
+     * @param rateLimiter per-client budgets, by user for signed-in routes and by address for
+     *                    the public ones; null disables them
+     * @param singleFlight shares one run among a user's identical concurrent reads; null
+     *                     disables it
+     */
+    public RequestPipeline(PriorityAdmission admission, Bulkheads bulkheads, Executor executor,
+                           Map<RouteClass, Integer> bodyLimits,
+                           Map<RouteClass, Integer> deadlines, ETags etags,
+                           IdempotencyKeys idempotency, RateLimiter rateLimiter,
+                           SingleFlight singleFlight) {
+        this.admission = admission;
+        this.bulkheads = bulkheads;
+        this.executor = executor;
+        this.bodyLimits = bodyLimits;
+        this.deadlines = deadlines;
+        this.etags = etags;
+        this.idempotency = idempotency;
+        this.rateLimiter = rateLimiter;
+        this.singleFlight = singleFlight;
+    }
+
+    public int maxBodyBytes(String path) {
+        RouteClass routeClass = HandlerFactory.getRouteClass(path);
+        return bodyLimits.getOrDefault(routeClass, routeClass.maxBodyBytes());
+    }
+
+    /**
+     * Queues the request for admission and returns its deadline, which the engine cancels if
+     * the client disconnects before the answer is written.
+     */
+    public Deadline submit(String path, RequestReader reader, Responder responder) {
+        var deadline = new Deadline(System.nanoTime());
+        // counted before the check, so a drain that has started cannot miss this request
+        inFlight.incrementAndGet();
+        if (draining) {
+            finished();
+            responder.respond(shuttingDown());
+            return deadline;
+        }
+        Responder tracked = new Responder() {
+            @Override
+            public void respond(HttpResponseBuilder response) {
+                try {
+                    responder.respond(response);
+                } finally {
+                    finished();
+                }
+            }
+
+            @Override
+            public void abort() {
+                try {
+                    responder.abort();
+                } finally {
+                    finished();
+                }
+            }
+        };
+        RouteClass routeClass = HandlerFactory.getRouteClass(path);
+        admission.admit(routeClass,
+                () -> dispatch(routeClass, reader, tracked, deadline),
+                () -> tracked.respond(serviceUnavailable()));
+        return deadline;
+    }
+
+    /**
+     * Turns new requests away with 503 and Connection: close from now on; requests already
+     * submitted run to completion.
+     */
+    public void startDraining() {
+        draining = true;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /** Waits until every submitted request has been answered; false if the time ran out. */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (idle) {
+            while (inFlight.get() > 0) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                idle.wait(left);
+            }
+        }
+        return true;
+    }
+
+    private void finished() {
+        if (inFlight.decrementAndGet() == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    private void dispatch(RouteClass routeClass, RequestReader reader, Responder responder,
+                          Deadline deadline) {
+        Runnable task = () -> process(routeClass, reader, responder, deadline);
+        if (bulkheads != null) {
+            if (!bulkheads.submit(routeClass, task)) {
+                // its class is saturated: an overload signal, like a timeout
+                admission.releaseDropped();
+                responder.respond(serviceUnavailable());
+            }
+        } else if (executor != null) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                admission.releaseDropped();
+                responder.respond(serviceUnavailable());
+            }
+        } else {
+            task.run();
+        }
+    }
+
+    // Runs the handler; always releases the admission permit
+    private void process(RouteClass routeClass, RequestReader reader, Responder responder,
+                         Deadline deadline) {
+        // DAO reads on this thread see it; streamed bodies read while respond() writes them
+        Deadline.bind(deadline);
+        try {
+            execute(routeClass, reader, responder, deadline);
+        } finally {
+            Deadline.bind(null);
+        }
+    }
+
+    private void execute(RouteClass routeClass, RequestReader reader, Responder responder,
+                         Deadline deadline) {
+        HttpResponseBuilder respBuilder;
+        long start = System.nanoTime();
+        // ran out of time: the one failure that tells the limiter it is overloaded
+        boolean timedOut = false;
+        try {
+            ParsedRequest req = reader.read();
+            start = System.nanoTime();
+            deadline.limit(budgetMillis(routeClass, req));
+            if (deadline.isCancelled()) {
+                throw new DeadlineExceededException(true);
+            }
+            // a request that queued past its deadline is answered without touching Mongo
+            timedOut = deadline.isExpired();
+            respBuilder = timedOut ? gatewayTimeout() : checkBeforeBody(routeClass, req);
+            if (respBuilder == null) {
+                respBuilder = runHandler(routeClass, req);
+            }
+        } catch (DeadlineExceededException e) {
+            if (e.isCancelled()) {
+                // nobody is waiting for the answer
+                admission.cancel();
+                responder.abort();
+                return;
+            }
+            timedOut = true;
+            respBuilder = gatewayTimeout();
+        } catch (MongoExecutionTimeoutException e) {
+            timedOut = true;
+            respBuilder = gatewayTimeout();
+        } catch (BodyTooLargeException e) {
+            respBuilder = clientError(StatusCodes.PAYLOAD_TOO_LARGE, e.getMessage());
+        } catch (JsonParseException e) {
+            respBuilder = new HttpResponseBuilder().setStatus(StatusCodes.BAD_REQUEST)
+                    .setRenderedBody(MALFORMED_JSON);
+        } catch (IOException e) {
+            admission.cancel();
+            responder.abort();
+            return;
+        } catch (RuntimeException e) {
+            // a handler bug, not overload: one client's bad bodies must not shrink the limit
+            admission.release(System.nanoTime() - start);
+            e.printStackTrace();
+            respBuilder = new HttpResponseBuilder().setStatus(StatusCodes.SERVER_ERROR)
+                    .setRenderedBody(INTERNAL_ERROR);
+            responder.respond(respBuilder);
+            return;
+        }
+        if (timedOut) {
+            admission.releaseDropped();
+            responder.respond(respBuilder);
+            return;
+        }
+        if (!respBuilder.isStreaming()) {
+            admission.release(System.nanoTime() - start);
+            responder.respond(respBuilder);
+            return;
+        }
+        // A streaming body does its database work while being written, so it keeps the
+        // permit until the last byte is out
+        try {
+            responder.respond(respBuilder);
+        } finally {
+            admission.release(System.nanoTime() - start);
+        }
+    }
+
+    private HttpResponseBuilder runHandler(RouteClass routeClass, ParsedRequest req) {
+        String path = req.getPath();
+        if ((rateLimiter != null || idempotency != null) && HandlerFactory.isComposite(req)) {
+            req.setAttribute(BatchHandler.GATE, entryGate);
+        }
+        if (idempotency != null && routeClass == RouteClass.MONEY
+                && req.getHeaderValue(IdempotencyKeys.HEADER) != null) {
+            // money routes require auth, so checkBeforeBody has resolved the user already
+            AuthFilter.AuthResult auth = AuthFilter.doFilter(req);
+            if (auth.isLoggedIn) {
+                // a replay is not a change: nothing is recorded for it
+                return idempotency.execute(auth.userName, req, () -> {
+                    HttpResponseBuilder resp = HandlerFactory.getHandler(req).handleRequest(req);
+                    HandlerFactory.recordChange(req, resp);
+                    return resp;
+                });
+            }
+        }
+        boolean versioned = etags != null && HandlerFactory.isVersioned(req);
+        // already resolved (and memoized) by checkBeforeBody for these routes
+        AuthFilter.AuthResult auth = versioned ? AuthFilter.doFilter(req) : null;
+        if (auth == null || !auth.isLoggedIn) {
+            HttpResponseBuilder resp = load(routeClass, req);
+            HandlerFactory.recordChange(req, resp);
+            return resp;
+        }
+
+        String userName = auth.userName;
+        String ifNoneMatch = req.getHeaderValue("If-None-Match");
+        if (!etags.hashesBodies()) {
+            // tag taken before querying: a write racing with this read only makes it stale
+            String tag = etags.versionTag(userName);
+            if (ETags.matches(ifNoneMatch, tag)) {
+                return notModified(tag);
+            }
+            return withETag(load(routeClass, req), tag);
+        }
+
+        HttpResponseBuilder resp = load(routeClass, req);
+        if (!isSuccess(resp) || resp.isStreaming()) {
+            // hashing a streamed body would hold all of it in memory; it goes out untagged
+            return resp;
+        }
+        byte[] body = resp.serializeBody();
+        String tag = ETags.bodyTag(body);
+        if (ETags.matches(ifNoneMatch, tag)) {
+            return notModified(tag);
+        }
+        return withETag(resp.setRenderedBody(body), tag);
+    }
+
+    // Runs the handler; a user's identical GETs on the read routes share one run
+    private HttpResponseBuilder load(RouteClass routeClass, ParsedRequest req) {
+        if (singleFlight == null || routeClass != RouteClass.READ
+                || !"GET".equals(req.getMethod())
+                || !HandlerFactory.requiresAuth(req)) {
+            return HandlerFactory.getHandler(req).handleRequest(req);
+        }
+        // resolved (and memoized) by checkBeforeBody, as the route requires auth
+        AuthFilter.AuthResult auth = AuthFilter.doFilter(req);
+        if (!auth.isLoggedIn) {
+            return HandlerFactory.getHandler(req).handleRequest(req);
+        }
+        return singleFlight.execute(SingleFlight.key(auth.userName, req),
+                () -> HandlerFactory.getHandler(req).handleRequest(req));
+    }
+
+    private static boolean isSuccess(HttpResponseBuilder resp) {
+        int code = resp.getStatusCode();
+        return code >= 200 && code < 300;
+    }
+
+    private static HttpResponseBuilder withETag(HttpResponseBuilder resp, String tag) {
+        if (isSuccess(resp)) {
+            // cacheable, but always revalidated
+            resp.setHeader("ETag", tag).setHeader("Cache-Control", "private, no-cache");
+        }
+        return resp;
+    }
+
+    private static HttpResponseBuilder notModified(String tag) {
+        return new HttpResponseBuilder().setStatus(StatusCodes.NOT_MODIFIED)
+                .setHeader("ETag", tag).setHeader("Cache-Control", "private, no-cache");
+    }
+
+    // The route's budget, or less if the client asked for less
+    private long budgetMillis(RouteClass routeClass, ParsedRequest req) {
+        long budget = deadlines.getOrDefault(routeClass, routeClass.deadlineMillis());
+        String asked = req.getHeaderValue(TIMEOUT_HEADER);
+        if (asked != null) {
+            try {
+                long millis = Long.parseLong(asked.trim());
+                if (millis > 0 && (budget <= 0 || millis < budget)) {
+                    budget = millis;
+                }
+            } catch (NumberFormatException ignore) {
+                // the route's budget stands
+            }
+        }
+        return budget;
+    }
+
+    // Rate-limited, declared-too-large and unauthenticated requests are turned away with the
+    // body unread. Public routes (e.g. /login) count per client address before any Mongo work;
+    // signed-in routes count per user once the session has checked out, and a session that
+    // does not counts against its address's AUTH budget
+    // One /batch entry: charged to its own route class, by the batch's user, and kept by its
+    // idempotency key like a request of its own
+    private HttpResponseBuilder runEntry(ParsedRequest sub, RouteClass routeClass,
+                                         Supplier<HttpResponseBuilder> handler) {
+        // shared from the batch, so no lookup
+        AuthFilter.AuthResult auth = AuthFilter.doFilter(sub);
+        if (!auth.isLoggedIn) {
+            return handler.get();
+        }
+        if (rateLimiter != null) {
+            long wait = rateLimiter.tryAcquire(routeClass, "user:" + auth.userName);
+            if (wait > 0) {
+                return tooManyRequests(wait);
+            }
+        }
+        if (idempotency != null && routeClass == RouteClass.MONEY) {
+            return idempotency.execute(auth.userName, sub, handler);
+        }
+        return handler.get();
+    }
+
+    private HttpResponseBuilder checkBeforeBody(RouteClass routeClass, ParsedRequest req) {
+        boolean requiresAuth = HandlerFactory.requiresAuth(req);
+        String address = req.getClientAddress();
+        boolean limited = rateLimiter != null && address != null;
+        if (limited && !requiresAuth) {
+            long wait = rateLimiter.tryAcquire(routeClass, "ip:" + address);
+            if (wait > 0) {
+                return tooManyRequests(wait);
+            }
+        }
+        int limit = bodyLimits.getOrDefault(routeClass, routeClass.maxBodyBytes());
+        req.setMaxBodyBytes(limit);
+        if (req.getContentLength() > limit) {
+            return clientError(StatusCodes.PAYLOAD_TOO_LARGE,
+                    "Request body exceeds " + limit + " bytes");
+        }
+        if (!requiresAuth) {
+            return null;
+        }
+        // an address that has used up its budget for bad sessions gets no more lookups
+        if (limited && rateLimiter.isEmpty(RouteClass.AUTH, "ip:" + address)) {
+            long wait = rateLimiter.tryAcquire(RouteClass.AUTH, "ip:" + address);
+            if (wait > 0) {
+                return tooManyRequests(wait);
+            }
+        }
+        AuthFilter.AuthResult auth = AuthFilter.doFilter(req);
+        if (!auth.isLoggedIn) {
+            if (limited) {
+                long wait = rateLimiter.tryAcquire(RouteClass.AUTH, "ip:" + address);
+                if (wait > 0) {
+                    return tooManyRequests(wait);
+                }
+            }
+            return new HttpResponseBuilder().setStatus(StatusCodes.UNAUTHORIZED);
+        }
+        if (limited) {
+            long wait = rateLimiter.tryAcquire(routeClass, "user:" + auth.userName);
+            if (wait > 0) {
+                return tooManyRequests(wait);
+            }
+        }
+        return null;
+    }
+
+    private static HttpResponseBuilder tooManyRequests(long waitNanos) {
+        return new HttpResponseBuilder().setStatus(StatusCodes.TOO_MANY_REQUESTS)
+                .setHeader("Retry-After", Long.toString(RateLimiter.retryAfterSeconds(waitNanos)))
+                .setRenderedBody(RATE_LIMITED);
+    }
+
+    private static HttpResponseBuilder clientError(String status, String message) {
+        return new HttpResponseBuilder().setStatus(status)
+                .setBody(new RestApiAppResponse<>(false, message));
+    }
+
+    static HttpResponseBuilder gatewayTimeout() {
+        return new HttpResponseBuilder().setStatus(StatusCodes.GATEWAY_TIMEOUT)
+                .setRenderedBody(TIMED_OUT);
+    }
+
+    static HttpResponseBuilder serviceUnavailable() {
+        return new HttpResponseBuilder().setStatus(StatusCodes.SERVICE_UNAVAILABLE)
+                .setHeader("Retry-After", RETRY_AFTER_SECONDS)
+                .setRenderedBody(BUSY);
+    }
+
+    // Sent while draining; the client should reconnect, landing on another instance
+    static HttpResponseBuilder shuttingDown() {
+        return new HttpResponseBuilder().setStatus(StatusCodes.SERVICE_UNAVAILABLE)
+                .setHeader("Retry-After", RETRY_AFTER_SECONDS)
+                .setHeader("Connection", "close")
+                .setRenderedBody(SHUTTING_DOWN);
+    }
+}
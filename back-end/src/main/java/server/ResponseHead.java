@@ -0,0 +1,84 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Status line and header fields of an HTTP/1.1 response, encoded straight to bytes. Fields are
+ * collected as references to the existing name and value Strings, then written once into an
+ * array of exactly the right size: no StringBuilder, no intermediate String, no charset
+ * encoder. The engine sends it with the body as a gathering write.
+ *
+ * <p>Header text is ISO-8859-1 on the wire; anything outside it is sent as '?'.
+ */
+final class ResponseHead {
+
+    private static final byte[] VERSION = {'H', 'T', 'T', 'P', '/', '1', '.', '1', ' '};
+
+    private final int status;
+    private final String reason;
+    // name, value, name, value, ...
+    private String[] fields = new String[2 * 12];
+    private int size;
+
+    ResponseHead(int status, String reason) {
+        if (status < 100 || status > 999) {
+            throw new IllegalArgumentException("Bad status " + status);
+        }
+        this.status = status;
+        this.reason = reason;
+    }
+
+    ResponseHead add(String name, String value) {
+        if (size == fields.length) {
+            fields = Arrays.copyOf(fields, size * 2);
+        }
+        fields[size++] = name;
+        fields[size++] = value;
+        return this;
+    }
+
+    ResponseHead add(String name, long value) {
+        return add(name, Long.toString(value));
+    }
+
+    ResponseHead connection(boolean keepAlive) {
+        return add("Connection", keepAlive ? "keep-alive" : "close");
+    }
+
+    /** "HTTP/1.1 200 OK\r\n", the fields, and the blank line. */
+    byte[] toBytes() {
+        int length = VERSION.length + 3 + 1 + reason.length() + 2 + 2;
+        for (int i = 0; i < size; i += 2) {
+            length += fields[i].length() + 2 + fields[i + 1].length() + 2;
+        }
+        byte[] out = new byte[length];
+        System.arraycopy(VERSION, 0, out, 0, VERSION.length);
+        int p = VERSION.length;
+        out[p++] = (byte) ('0' + status / 100 % 10);
+        out[p++] = (byte) ('0' + status / 10 % 10);
+        out[p++] = (byte) ('0' + status % 10);
+        out[p++] = ' ';
+        p = put(reason, out, p);
+        out[p++] = '\r';
+        out[p++] = '\n';
+        for (int i = 0; i < size; i += 2) {
+            p = put(fields[i], out, p);
+            out[p++] = ':';
+            out[p++] = ' ';
+            p = put(fields[i + 1], out, p);
+            out[p++] = '\r';
+            out[p++] = '\n';
+        }
+        out[p++] = '\r';
+        out[p] = '\n';
+        return out;
+    }
+
+    private static int put(String s, byte[] out, int p) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            out[p++] = c <= 0xFF && c != '\r' && c != '\n' ? (byte) c : (byte) '?';
+        }
+        return p;
+    }
+}
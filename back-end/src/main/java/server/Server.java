@@ -1,83 +1,571 @@
 package server;
 
 import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsServer;
+import config.AppConfig;
+import dao.IdempotencyDao;
+import dao.MongoConnection;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import handler.AuthFilter;
 import handler.HandlerFactory;
+import handler.RouteClass;
+import handler.StatusCodes;
+import handler.UserChanges;
 import request.ParsedRequest;
 import response.HttpResponseBuilder;
+import response.RestApiAppResponse;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class Server {
-    public static void main(String[] args) throws IOException {
-        int port = 1299;
-        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
-        System.out.println("HTTP server started on port " + port);
-
-        // Register a generic handler for all endpoints
-        server.createContext("/", new GenericHandler());
-        server.setExecutor(null); // default executor
-        server.start();
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // app.properties / APP_CONFIG file, overridden by env (SERVER_PORT) and -Dserver.port
+        AppConfig config = AppConfig.get();
+        int port = config.getInt("server.port", 1299);
+        // Bounded accept queue; overflow beyond this is the kernel's problem, not ours
+        int backlog = config.getInt("server.backlog", 128);
+        // jdk (com.sun.net.httpserver, default) or nio (NioHttpEngine)
+        String engine = config.getString("server.engine", "jdk");
+
+        // On SIGTERM, requests already running get this long to finish before the exit
+        int drainMillis = config.getInt("shutdown.drain.ms", 30_000);
+
+        // Several listeners on one port via SO_REUSEPORT: acceptor threads in this JVM,
+        // or child JVMs started and restarted by a supervisor
+        int listeners = config.getInt("server.workers", 1);
+        String workerMode = config.getString("server.worker.mode", "threads");
+        if (listeners > 1 && !"nio".equalsIgnoreCase(engine)) {
+            System.out.println("SERVER_WORKERS needs SO_REUSEPORT, using the nio engine");
+            engine = "nio";
+        }
+
+        // HTTPS from a local keystore; only HttpsServer (the jdk engine) speaks TLS
+        Tls tls = null;
+        String keystore = config.getString("tls.keystore", null);
+        if (keystore != null) {
+            if (listeners > 1) {
+                throw new IllegalStateException("tls.keystore needs the jdk engine, which has"
+                        + " a single listener; unset server.workers");
+            }
+            if (!"jdk".equalsIgnoreCase(engine)) {
+                System.out.println("TLS is served by the jdk engine, using it instead of "
+                        + engine);
+                engine = "jdk";
+            }
+            var tlsOptions = new Tls.Options();
+            tlsOptions.keystore = keystore;
+            tlsOptions.keystorePassword = config.getString("tls.keystore.password", "");
+            tlsOptions.keystoreType = config.getString("tls.keystore.type",
+                    tlsOptions.keystoreType);
+            tlsOptions.keyPassword = config.getString("tls.key.password", null);
+            tlsOptions.protocols = config.getList("tls.protocols", tlsOptions.protocols);
+            tlsOptions.sessionCacheSize = config.getInt("tls.session.cache.size",
+                    tlsOptions.sessionCacheSize);
+            tlsOptions.sessionTimeoutSeconds = config.getInt("tls.session.timeout.seconds",
+                    tlsOptions.sessionTimeoutSeconds);
+            tlsOptions.sessionTickets = config.getBoolean("tls.session.tickets",
+                    tlsOptions.sessionTickets);
+            tls = new Tls(tlsOptions);
+            MetricsHandler.register("tls", tls::stats);
+        }
+
+        if (listeners > 1 && "process".equalsIgnoreCase(workerMode)
+                && !WorkerSupervisor.isWorker()) {
+            System.out.println("Supervising " + listeners + " worker processes on port " + port
+                    + "\nConfiguration:\n" + config.describe());
+            new WorkerSupervisor(listeners, Map.of("server.engine", "nio"), drainMillis).run();
+            return;
+        }
+        // A worker process binds a single listener next to its siblings
+        boolean reusePort = listeners > 1 || WorkerSupervisor.isWorker();
+        int acceptors = WorkerSupervisor.isWorker() ? 1 : listeners;
+
+        // Adaptive in-flight limit; excess requests get 503 + Retry-After
+        var limiter = new ConcurrencyLimiter(
+                config.getInt("limiter.initial", 32),
+                config.getInt("limiter.min", 4),
+                config.getInt("limiter.max", 512),
+                config.getInt("limiter.target.ms", 250),
+                0.9);
+        MetricsHandler.register("limiter", () -> {
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("limit", limiter.getLimit());
+            s.put("inFlight", limiter.getInFlight());
+            s.put("rejected", limiter.getRejected());
+            return s;
+        });
+
+        // Optional per-route-class pools so one class of traffic cannot starve the others
+        Bulkheads bulkheads = null;
+        if (config.getBoolean("server.bulkheads", false)) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            bulkheads = new Bulkheads()
+                    .add(RouteClass.AUTH, config.getInt("bulkhead.auth.threads", cores),
+                            config.getInt("bulkhead.auth.queue", 64))
+                    .add(RouteClass.READ, config.getInt("bulkhead.read.threads", cores * 4),
+                            config.getInt("bulkhead.read.queue", 256))
+                    .add(RouteClass.MONEY, config.getInt("bulkhead.money.threads", cores * 4),
+                            config.getInt("bulkhead.money.queue", 256))
+                    .add(RouteClass.OTHER, config.getInt("bulkhead.other.threads", cores * 2),
+                            config.getInt("bulkhead.other.queue", 128));
+            MetricsHandler.register("bulkheads", bulkheads::stats);
+        }
+
+        // virtual (default), platform or dispatcher
+        String executorMode = config.getString("server.executor", ServerExecutors.VIRTUAL);
+        int threads = config.getInt("server.threads",
+                Runtime.getRuntime().availableProcessors() * 4);
+        int queueSize = config.getInt("server.queue", 256);
+        ExecutorService executor = ServerExecutors.create(executorMode, threads, queueSize);
+
+        // Periodic sweeps (expired queue entries, idle rate-limit buckets), off request threads
+        ScheduledExecutorService housekeeping = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().daemon().name("housekeeping").factory());
+
+        // When saturated, wait in a priority queue (money movement first, polling reads last)
+        // Requests that had to queue resume on the request executor (a virtual one if none).
+        // The nio engine and the bulkheads hand every request off already, so there a queued
+        // request is dispatched straight from the thread that freed its permit
+        ExecutorService workers = executor != null
+                ? executor : ServerExecutors.create(ServerExecutors.VIRTUAL, 0, 0);
+        boolean handsOff = bulkheads != null || "nio".equalsIgnoreCase(engine);
+        int maxWaitMillis = config.getInt("admission.max.wait.ms", 2000);
+        var admission = new PriorityAdmission(limiter,
+                config.getInt("admission.queue", 128), maxWaitMillis,
+                handsOff ? null : workers);
+        MetricsHandler.register("admission", admission::stats);
+        long expireMillis = Math.max(10, maxWaitMillis / 4);
+        housekeeping.scheduleWithFixedDelay(admission::expire, expireMillis, expireMillis,
+                TimeUnit.MILLISECONDS);
+
+        // ETag/304 for the polled lists: per-user data versions (version), or a hash of the
+        // body (hash), which stays correct when several worker processes share the port
+        String etagMode = config.getString("etag.mode",
+                WorkerSupervisor.isWorker() ? "hash" : "version");
+        ETags etags = "off".equalsIgnoreCase(etagMode) ? null
+                : new ETags("hash".equalsIgnoreCase(etagMode));
+
+        // Request body caps, e.g. max.body.other=65536; defaults come from RouteClass
+        Map<RouteClass, Integer> bodyLimits = new EnumMap<>(RouteClass.class);
+        for (RouteClass rc : RouteClass.values()) {
+            bodyLimits.put(rc, config.getInt("max.body." + rc.name().toLowerCase(Locale.ROOT),
+                    rc.maxBodyBytes()));
+        }
+        // Time from arrival to answer before a 504, e.g. deadline.read.ms=3000; 0 disables.
+        // DAO reads carry what is left to Mongo as maxTimeMS
+        Map<RouteClass, Integer> deadlines = new EnumMap<>(RouteClass.class);
+        for (RouteClass rc : RouteClass.values()) {
+            deadlines.put(rc, config.getInt("deadline." + rc.name().toLowerCase(Locale.ROOT)
+                    + ".ms", rc.deadlineMillis()));
+        }
+
+        // Idempotency-Key on the money routes: a retried transfer replays the first answer.
+        // Outcomes live in a bounded map here and in Mongo (TTL index) for other instances
+        IdempotencyKeys idempotency = null;
+        if (config.getBoolean("idempotency.enabled", true)) {
+            long ttlSeconds = config.getLong("idempotency.ttl.seconds", 86_400);
+            IdempotencyDao idempotencyDao = IdempotencyDao.getInstance();
+            idempotency = new IdempotencyKeys(idempotencyDao,
+                    config.getInt("idempotency.cache.size", 10_000), ttlSeconds,
+                    config.getLong("idempotency.lease.ms", 60_000));
+            MetricsHandler.register("idempotency", idempotency::stats);
+            // off the startup path: Mongo may not be reachable yet
+            Thread.ofVirtual().name("idempotency-index").start(() -> {
+                try {
+                    idempotencyDao.ensureTtlIndex(ttlSeconds);
+                } catch (RuntimeException e) {
+                    System.out.println("Could not create the idempotency TTL index: " + e);
+                }
+            });
+        }
+
+        // Token buckets per client and route class, e.g. ratelimit.auth.per.minute=30 with
+        // ratelimit.auth.burst=10; over budget gets 429 + Retry-After. Signed-in routes count
+        // per user, public ones (login, sign-up) and bad sessions per client address
+        RateLimiter rateLimiter = null;
+        if (config.getBoolean("ratelimit.enabled", true)) {
+            Map<RouteClass, RateLimiter.Budget> budgets = new EnumMap<>(RouteClass.class);
+            for (RouteClass rc : RouteClass.values()) {
+                String prefix = "ratelimit." + rc.name().toLowerCase(Locale.ROOT);
+                budgets.put(rc, new RateLimiter.Budget(
+                        config.getInt(prefix + ".per.minute", defaultPerMinute(rc)),
+                        config.getInt(prefix + ".burst", defaultBurst(rc))));
+            }
+            rateLimiter = new RateLimiter(budgets, config.getInt("ratelimit.max.keys", 1_000_000));
+            MetricsHandler.register("ratelimit", rateLimiter::stats);
+            long sweepMillis = config.getLong("ratelimit.sweep.ms", 10_000);
+            housekeeping.scheduleWithFixedDelay(rateLimiter::sweep, sweepMillis, sweepMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        // A user's identical GETs on the read routes, in flight at once, share one handler run
+        SingleFlight singleFlight = null;
+        if (config.getBoolean("singleflight.enabled", true)) {
+            singleFlight = new SingleFlight();
+            MetricsHandler.register("singleflight", singleFlight::stats);
+        }
+
+        // gzip/deflate for clients that accept it, on bodies of at least COMPRESSION_MIN_BYTES
+        Compression compression = null;
+        if (config.getBoolean("compression", true)) {
+            compression = new Compression(config.getInt("compression.min.bytes", 1024),
+                    config.getInt("compression.level", 6),
+                    config.getInt("compression.pool",
+                            Runtime.getRuntime().availableProcessors() * 2));
+        }
+
+        GracefulShutdown shutdown;
+        // The front-end build, served from this port next to the API (off if the dir is missing)
+        StaticFiles staticFiles = null;
+        Path staticDir = Path.of(config.getString("static.dir", "../front-end/build"));
+        if (Files.isDirectory(staticDir)) {
+            staticFiles = new StaticFiles(staticDir,
+                    config.getBoolean("static.spa.fallback", true));
+        }
+
+        // GET /events: pushes "your data changed" to signed-in tabs instead of them polling
+        // Changes are only published within this process, so with worker processes a tab
+        // connected to one worker would miss writes handled by another: off there by default
+        ChangeEvents events = null;
+        boolean eventsEnabled = config.getBoolean("events.enabled", !WorkerSupervisor.isWorker());
+        if (eventsEnabled && WorkerSupervisor.isWorker()) {
+            System.out.println("events.enabled with worker processes: /events only sees writes"
+                    + " handled by the same worker");
+        }
+        if (eventsEnabled) {
+            events = new ChangeEvents(config.getInt("events.queue", 32),
+                    config.getLong("events.heartbeat.ms", 15_000));
+            UserChanges.addListener(events);
+            MetricsHandler.register("events", events::stats);
+        }
+
+        if ("nio".equalsIgnoreCase(engine)) {
+            // Handlers must never run on the selector thread, so a full pool rejects (503)
+            // instead of falling back to the caller
+            if (workers instanceof ThreadPoolExecutor pool) {
+                pool.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+            }
+            var options = new NioHttpEngine.Options();
+            options.backlog = backlog;
+            options.readBufferBytes = config.getInt("nio.read.buffer", options.readBufferBytes);
+            options.gatherBuffers = config.getInt("nio.write.gather", options.gatherBuffers);
+            options.chunkBytes = config.getInt("nio.chunk.bytes", options.chunkBytes);
+            options.socketReceiveBuffer = config.getInt("nio.so.rcvbuf", 0);
+            options.socketSendBuffer = config.getInt("nio.so.sndbuf", 0);
+            options.acceptBatch = config.getInt("nio.accept.batch", options.acceptBatch);
+            options.idleTimeoutMillis = config.getInt("nio.idle.timeout.ms", 30_000);
+            options.reusePort = reusePort;
+            options.compression = compression;
+            options.staticFiles = staticFiles;
+            options.events = events;
+            var pipeline = new RequestPipeline(admission, bulkheads, workers, bodyLimits, deadlines,
+                    etags, idempotency, rateLimiter, singleFlight);
+            // With SO_REUSEPORT each acceptor gets its own socket and the kernel balances them
+            List<NioHttpEngine> engines = new ArrayList<>();
+            for (int i = 0; i < acceptors; i++) {
+                var nio = new NioHttpEngine("nio-http-" + i, new InetSocketAddress(port),
+                        pipeline, options);
+                nio.start();
+                engines.add(nio);
+            }
+            shutdown = new GracefulShutdown(pipeline, engines, null, events, drainMillis);
+        } else {
+            HttpServer server;
+            if (tls != null) {
+                HttpsServer https = HttpsServer.create(new InetSocketAddress(port), backlog);
+                https.setHttpsConfigurator(tls.configurator());
+                server = https;
+            } else {
+                server = HttpServer.create(new InetSocketAddress(port), backlog);
+            }
+            var pipeline = new RequestPipeline(admission, bulkheads, null, bodyLimits, deadlines,
+                    etags, idempotency, rateLimiter, singleFlight);
+            // Register a generic handler for all endpoints
+            server.createContext("/", new GenericHandler(pipeline, compression, tls, staticFiles,
+                    events));
+            server.createContext("/metrics", new MetricsHandler());
+            server.setExecutor(executor);
+            server.start();
+            shutdown = new GracefulShutdown(pipeline, List.of(), server, events, drainMillis);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(shutdown, "server-shutdown"));
+        // create the Mongo client now so its settings are read (and logged) up front
+        MongoConnection.getDb();
+        System.out.println("HTTP server started on port " + port + " (engine: " + engine
+                + ", listeners: " + (engine.equalsIgnoreCase("nio") ? acceptors : 1)
+                + ", tls: " + (tls != null) + ", executor: " + executorMode
+                + ", bulkheads: " + (bulkheads != null)
+                + ", CORS origins: " + Cors.ALLOWED_ORIGINS + ", static files: "
+                + (staticFiles != null ? staticFiles.getRoot() : "off") + ")"
+                + "\nConfiguration:\n" + config.describe());
+    }
+
+    // Sustained requests per minute per client; a page load polls several lists at once
+    private static int defaultPerMinute(RouteClass routeClass) {
+        return switch (routeClass) {
+            case AUTH -> 30;     // a password hash and a Mongo query each
+            case READ -> 1200;
+            case MONEY -> 300;
+            case OTHER -> 600;
+        };
+    }
+
+    private static int defaultBurst(RouteClass routeClass) {
+        return switch (routeClass) {
+            case AUTH -> 10;
+            case READ -> 60;
+            case MONEY -> 20;
+            case OTHER -> 30;
+        };
     }
 
+    // Adapts com.sun.net.httpserver exchanges to the RequestPipeline
     static class GenericHandler implements HttpHandler {
+
+        private final RequestPipeline pipeline;
+        private final Compression compression; // null when disabled
+        private final Tls tls;                 // null for plain HTTP
+        private final StaticFiles staticFiles; // null when not serving the front-end
+        private final ChangeEvents events;     // null when /events is off
+
+        GenericHandler(RequestPipeline pipeline, Compression compression, Tls tls,
+                       StaticFiles staticFiles, ChangeEvents events) {
+            this.pipeline = pipeline;
+            this.compression = compression;
+            this.tls = tls;
+            this.staticFiles = staticFiles;
+            this.events = events;
+        }
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String origin = "http://localhost:3000";
+            if (tls != null) {
+                tls.onExchange(exchange);
+            }
             // Handle CORS preflight
             if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())) {
-                exchange.getResponseHeaders().add("Access-Control-Allow-Origin", origin);
-                exchange.getResponseHeaders().add("Access-Control-Allow-Credentials", "true");
-                exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET,POST,PUT,DELETE,OPTIONS");
-                exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type, Cookie, Authorization");
+                Cors.addPreflightHeaders(exchange.getRequestHeaders().getFirst("Origin"),
+                        exchange.getResponseHeaders()::add);
                 exchange.sendResponseHeaders(204, -1);
                 return;
             }
+            if (events != null && ChangeEvents.PATH.equals(exchange.getRequestURI().getPath())
+                    && "GET".equalsIgnoreCase(exchange.getRequestMethod())
+                    && !pipeline.isDraining()) {
+                streamEvents(exchange);
+                return;
+            }
+            if (staticFiles != null && !HandlerFactory.hasRoute(exchange.getRequestURI().getPath())
+                    && serveStatic(exchange)) {
+                return;
+            }
 
-            // Parse request
+            // Admission may queue the request; the exchange stays open after handle() returns
+            // and is finished by whichever thread ends up running it. The body is only read
+            // by the handler, after the size and auth checks.
+            pipeline.submit(exchange.getRequestURI().getPath(), () -> readRequest(exchange),
+                    new RequestPipeline.Responder() {
+                        @Override
+                        public void respond(HttpResponseBuilder response) {
+                            try {
+                                writeResponse(exchange, response);
+                            } catch (IOException e) {
+                                exchange.close();
+                            } catch (RuntimeException e) {
+                                // failed mid-stream; the client sees a truncated response
+                                e.printStackTrace();
+                                exchange.close();
+                            }
+                        }
+
+                        @Override
+                        public void abort() {
+                            exchange.close();
+                        }
+                    });
+        }
+
+        // Outside the pipeline: a stream would hold an admission permit for as long as it is open
+        private void streamEvents(HttpExchange exchange) throws IOException {
+            ParsedRequest req = new ParsedRequest();
+            req.setPath(ChangeEvents.PATH);
+            req.setMethod("GET");
+            req.setHeaders(headerLookup(exchange.getRequestHeaders()));
+            AuthFilter.AuthResult auth;
+            try {
+                auth = AuthFilter.doFilter(req);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                writeResponse(exchange, new HttpResponseBuilder()
+                        .setStatus(StatusCodes.SERVER_ERROR)
+                        .setBody(new RestApiAppResponse<>(false, "Internal server error")));
+                return;
+            }
+            if (!auth.isLoggedIn) {
+                writeResponse(exchange, new HttpResponseBuilder()
+                        .setStatus(StatusCodes.UNAUTHORIZED));
+                return;
+            }
+            Headers headers = exchange.getResponseHeaders();
+            Cors.addResponseHeaders(exchange.getRequestHeaders().getFirst("Origin"), headers::add);
+            headers.set("Content-Type", "text/event-stream");
+            headers.set("Cache-Control", "no-cache");
+            headers.set("X-Accel-Buffering", "no"); // a proxy in front must not buffer events
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream os = exchange.getResponseBody();
+            events.subscribe(auth.userName, new ChangeEvents.Sink() {
+                @Override
+                public void send(byte[] data) throws IOException {
+                    os.write(data);
+                    os.flush();
+                }
+
+                @Override
+                public void close() {
+                    exchange.close();
+                }
+            });
+        }
+
+        private boolean serveStatic(HttpExchange exchange) throws IOException {
+            Headers request = exchange.getRequestHeaders();
+            StaticFiles.Response file = staticFiles.serve(exchange.getRequestMethod(),
+                    exchange.getRequestURI().getPath(), request.getFirst("Accept"),
+                    request.getFirst("Accept-Encoding"), request.getFirst("If-None-Match"));
+            if (file == null) {
+                return false;
+            }
+            // HttpServer sets Content-Length itself (and drops it for HEAD)
+            file.headers().forEach((k, v) -> {
+                if (!k.equals("Content-Length")) {
+                    exchange.getResponseHeaders().set(k, v);
+                }
+            });
+            if (pipeline.isDraining()) {
+                exchange.getResponseHeaders().set("Connection", "close");
+            }
+            ByteBuffer body = file.body();
+            exchange.sendResponseHeaders(file.status(), body == null ? -1 : body.remaining());
+            // HttpServer only offers a stream, so the mapping is copied out in small chunks
+            try (OutputStream os = exchange.getResponseBody();
+                 WritableByteChannel out = Channels.newChannel(os)) {
+                while (body != null && body.hasRemaining()) {
+                    out.write(body);
+                }
+            }
+            return true;
+        }
+
+        private static ParsedRequest readRequest(HttpExchange exchange) throws IOException {
             String path = exchange.getRequestURI().getPath();
             String method = exchange.getRequestMethod();
-            Map<String, List<String>> headers = exchange.getRequestHeaders();
-            String body = new String(exchange.getRequestBody().readAllBytes());
+            Headers headers = exchange.getRequestHeaders();
+            long contentLength;
+            try {
+                String cl = exchange.getRequestHeaders().getFirst("Content-Length");
+                contentLength = cl == null ? -1 : Long.parseLong(cl.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length");
+            }
 
             // Build ParsedRequest for handler
             ParsedRequest req = new ParsedRequest();
             req.setPath(path);
             req.setMethod(method);
-            // Set headers in ParsedRequest
-            headers.forEach((key, values) -> req.setHeaderValue(key, String.join(",", values)));
-            req.setBody(body);
+            req.setRawQuery(exchange.getRequestURI().getRawQuery());
+            req.setClientAddress(exchange.getRemoteAddress().getAddress().getHostAddress());
+            // read from the exchange when asked for, not copied up front
+            req.setHeaders(headerLookup(headers));
+            req.setBodyStream(exchange.getRequestBody(), contentLength);
+            return req;
+        }
 
-            // Route to handler
-            HttpResponseBuilder respBuilder = HandlerFactory.getHandler(req).handleRequest(req);
+        // Headers is already case-insensitive; repeated headers are joined as one list value
+        private static ParsedRequest.HeaderLookup headerLookup(Headers headers) {
+            return name -> {
+                List<String> values = headers.get(name);
+                if (values == null || values.isEmpty()) {
+                    return null;
+                }
+                return values.size() == 1 ? values.get(0) : String.join(",", values);
+            };
+        }
 
+        private void writeResponse(HttpExchange exchange, HttpResponseBuilder respBuilder)
+                throws IOException {
             // Set CORS headers
-            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", origin);
-            exchange.getResponseHeaders().add("Access-Control-Allow-Credentials", "true");
-            exchange.getResponseHeaders().add("Vary", "Origin");
-            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            Cors.addResponseHeaders(exchange.getRequestHeaders().getFirst("Origin"),
+                    exchange.getResponseHeaders()::add);
+            if (!respBuilder.getHeaders().containsKey("Content-Type")) {
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+            }
             // Set any other headers from respBuilder
             respBuilder.getHeaders().forEach((k, v) -> exchange.getResponseHeaders().add(k, v));
+            if (pipeline.isDraining()) {
+                // HttpServer closes the connection after this exchange
+                exchange.getResponseHeaders().set("Connection", "close");
+            }
 
-            // Serialize response body to JSON
-            String json = handler.GsonTool.GSON.toJson(respBuilder.getBody());
-            byte[] respBytes = json.getBytes();
+            String encoding = null;
+            if (compression != null) {
+                exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+                encoding = compression.negotiate(
+                        exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            }
 
-            // Parse status code from respBuilder.getStatus()
-            int statusCode = 200; // default
-            try {
-                statusCode = Integer.parseInt(respBuilder.getStatus().split(" ")[0]);
-            } catch (Exception ignore) {}
-            exchange.sendResponseHeaders(statusCode, respBytes.length);
+            if (respBuilder.isStreaming()) {
+                boolean compress = encoding != null && compression.shouldCompress(respBuilder, -1);
+                if (compress) {
+                    markEncoded(exchange, encoding);
+                }
+                // length 0 means chunked transfer encoding
+                exchange.sendResponseHeaders(respBuilder.getStatusCode(), 0);
+                try (OutputStream os = compress
+                        ? compression.wrap(exchange.getResponseBody(), encoding)
+                        : exchange.getResponseBody()) {
+                    respBuilder.writeBody(os);
+                }
+                return;
+            }
+            byte[] respBytes = respBuilder.serializeBody();
+            if (encoding != null && compression.shouldCompress(respBuilder, respBytes.length)) {
+                respBytes = compression.compress(respBytes, encoding);
+                markEncoded(exchange, encoding);
+            }
+            // -1: no body at all (204/304)
+            exchange.sendResponseHeaders(respBuilder.getStatusCode(),
+                    respBytes.length == 0 ? -1 : respBytes.length);
             OutputStream os = exchange.getResponseBody();
             os.write(respBytes);
             os.close();
         }
+
+        private static void markEncoded(HttpExchange exchange, String encoding) {
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+            String etag = exchange.getResponseHeaders().getFirst("ETag");
+            if (etag != null) {
+                exchange.getResponseHeaders().set("ETag", ETags.withEncoding(etag, encoding));
+            }
+        }
     }
 }
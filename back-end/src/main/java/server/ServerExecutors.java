@@ -0,0 +1,58 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the executor HttpServer runs exchanges on.
+ *
+ * <ul>
+ *   <li>{@code virtual} - one virtual thread per request, blocking Mongo calls park cheaply</li>
+ *   <li>{@code platform} - bounded pool of platform threads with a bounded queue</li>
+ *   <li>{@code dispatcher} - no executor, everything runs on the HttpServer dispatcher thread</li>
+ * </ul>
+ */
+public class ServerExecutors {
+
+    public static final String VIRTUAL = "virtual";
+    public static final String PLATFORM = "platform";
+    public static final String DISPATCHER = "dispatcher";
+
+    // returns null for dispatcher mode, which is what HttpServer.setExecutor expects
+    public static ExecutorService create(String mode, int threads, int queueSize) {
+        String m = mode == null ? VIRTUAL : mode.trim().toLowerCase();
+        return switch (m) {
+            case VIRTUAL -> Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("http-vt-", 0).factory());
+            case PLATFORM -> newBoundedPool("http-worker-", threads, queueSize);
+            case DISPATCHER -> null;
+            default -> throw new IllegalArgumentException("Unknown executor mode: " + mode);
+        };
+    }
+
+    // Full queue falls back to running on the submitting (dispatcher) thread, which
+    // stops the server from accepting more work until a worker frees up.
+    public static ThreadPoolExecutor newBoundedPool(String prefix, int threads, int queueSize) {
+        int size = Math.max(1, threads);
+        var pool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                namedFactory(prefix),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    static ThreadFactory namedFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,121 @@
+package server;
+
+import dao.Deadline;
+import dao.DeadlineExceededException;
+import handler.UserChanges;
+import request.ParsedRequest;
+import response.HttpResponseBuilder;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical reads that run at the same time: several tabs, or a front-end firing
+ * the same fetch twice, asking for one user's list at once. The first request runs the handler
+ * and serializes its body; the others wait for it and answer with the same bytes.
+ *
+ * <p>The key holds the user's data version, so a read that starts after the user's last write
+ * never joins one that started before it. Only the running request is shared; nothing is kept
+ * once it has answered. If it fails or its client goes away, whoever was waiting runs the
+ * handler itself.
+ *
+ * <p>Streaming bodies are not shared: rendering one would hold the whole result in memory,
+ * which is what streaming avoids. The first request streams as usual and the others run their
+ * own handler.
+ */
+public class SingleFlight {
+
+    private record Result(String status, Map<String, String> headers, byte[] body) {
+    }
+
+    private final ConcurrentHashMap<String, CompletableFuture<Result>> flights =
+            new ConcurrentHashMap<>();
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /** The flight key of a user's GET: path, query as sent, and the user's data version. */
+    public static String key(String userName, ParsedRequest req) {
+        String query = req.getRawQuery();
+        return userName + '\n' + UserChanges.generation() + '.' + UserChanges.version(userName)
+                + '\n' + req.getPath() + (query == null ? "" : '?' + query);
+    }
+
+    /**
+     * The handler's answer, from this call or from an identical one already running. A shared
+     * body comes back rendered; a streaming one is returned as the handler built it.
+     */
+    public HttpResponseBuilder execute(String key, Supplier<HttpResponseBuilder> handler) {
+        var flight = new CompletableFuture<Result>();
+        CompletableFuture<Result> running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            Result shared = await(running);
+            if (shared != null) {
+                coalesced.increment();
+                return toResponse(shared);
+            }
+            return handler.get();
+        }
+        leaders.increment();
+        try {
+            HttpResponseBuilder resp = handler.get();
+            if (resp.isStreaming()) {
+                // nothing to share; waiters run their own
+                flight.complete(null);
+                return resp;
+            }
+            var result = new Result(resp.getStatus(), Map.copyOf(resp.getHeaders()),
+                    resp.serializeBody());
+            flight.complete(result);
+            return toResponse(result);
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    // The leader's result, or null if it failed or streamed; waits no longer than this
+    // request may take
+    private static Result await(CompletableFuture<Result> running) {
+        Deadline deadline = Deadline.current();
+        long millis = deadline == null ? Long.MAX_VALUE : deadline.remainingMillis();
+        try {
+            return millis == Long.MAX_VALUE ? running.get()
+                    : running.get(millis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            return null;
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(deadline.isCancelled());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeadlineExceededException(true);
+        }
+    }
+
+    // Each request gets its own builder: the pipeline and engines add headers per request
+    private static HttpResponseBuilder toResponse(Result result) {
+        var resp = new HttpResponseBuilder().setStatus(result.status())
+                .setRenderedBody(result.body());
+        if (!result.headers().isEmpty()) {
+            resp.setHeaders(new HashMap<>(result.headers()));
+        }
+        return resp;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("running", flights.size());
+        s.put("leaders", leaders.sum());
+        s.put("coalesced", coalesced.sum());
+        return s;
+    }
+}
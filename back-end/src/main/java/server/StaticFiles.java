@@ -0,0 +1,204 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The front-end build (index.html, static/js, ...) served next to the API, so the browser
+ * talks to one origin without a proxy in front.
+ *
+ * <p>Files are memory-mapped once and each response gets a view of the mapping, so bodies are
+ * never read into the heap; the nio engine writes them to the socket straight from the page
+ * cache. A {@code .br} or {@code .gz} file next to an asset (made at build time) is sent
+ * instead when the client accepts it. Names with a content hash (main.1a2b3c4d.js) never
+ * change, so they are cached for a year; everything else is revalidated by ETag.
+ */
+public class StaticFiles {
+
+    /** Status, headers and body (null for HEAD and 304) of a static response. */
+    public record Response(int status, Map<String, String> headers, ByteBuffer body) {
+    }
+
+    private record Variant(String encoding, MappedByteBuffer data, String etag) {
+    }
+
+    // one mapping per file, replaced when the file changes on disk
+    private record Entry(long size, long modified, MappedByteBuffer data, String etag,
+                         String contentType, boolean immutable, Variant br, Variant gzip) {
+    }
+
+    // a dot-separated run of 8+ hex digits: main.1a2b3c4d.js, 123.abcdef01.chunk.js
+    private static final Pattern HASHED = Pattern.compile("(^|\\.)[0-9a-f]{8,}\\.");
+
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE = "no-cache";
+
+    private static final Map<String, String> TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"),
+            Map.entry("js", "text/javascript; charset=utf-8"),
+            Map.entry("mjs", "text/javascript; charset=utf-8"),
+            Map.entry("css", "text/css; charset=utf-8"),
+            Map.entry("json", "application/json; charset=utf-8"),
+            Map.entry("map", "application/json; charset=utf-8"),
+            Map.entry("webmanifest", "application/manifest+json"),
+            Map.entry("txt", "text/plain; charset=utf-8"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("ttf", "font/ttf"));
+
+    private final Path root;
+    private final boolean spaFallback;
+    private final Map<Path, Entry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @param spaFallback answer unknown extension-less page requests with index.html, so
+     *                    client-side routes (/home, /goals) survive a reload
+     */
+    public StaticFiles(Path root, boolean spaFallback) {
+        this.root = root.toAbsolutePath().normalize();
+        this.spaFallback = spaFallback;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * The response for a GET or HEAD of a file under the root, or null when there is no such
+     * file and the request should go on to the API (which answers 404 if nothing matches).
+     */
+    public Response serve(String method, String path, String accept, String acceptEncoding,
+                          String ifNoneMatch) throws IOException {
+        boolean head = "HEAD".equalsIgnoreCase(method);
+        if (!head && !"GET".equalsIgnoreCase(method) || path == null || !path.startsWith("/")
+                || path.indexOf('\\') >= 0 || path.indexOf('\0') >= 0) {
+            return null;
+        }
+        String name = path.endsWith("/") ? path + "index.html" : path;
+        Entry entry = lookup(name);
+        if (entry == null && spaFallback && !lastSegment(path).contains(".")
+                && accept != null && accept.contains("text/html")) {
+            entry = lookup("/index.html");
+        }
+        if (entry == null) {
+            return null;
+        }
+
+        Variant variant = null;
+        if (entry.br != null && Compression.quality(acceptEncoding, "br") > 0) {
+            variant = entry.br;
+        } else if (entry.gzip != null
+                && Compression.quality(acceptEncoding, Compression.GZIP) > 0) {
+            variant = entry.gzip;
+        }
+        String etag = variant != null ? variant.etag : entry.etag;
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", entry.contentType);
+        headers.put("Cache-Control", entry.immutable ? IMMUTABLE : REVALIDATE);
+        headers.put("ETag", etag);
+        if (entry.br != null || entry.gzip != null) {
+            headers.put("Vary", "Accept-Encoding");
+        }
+        if (ETags.matches(ifNoneMatch, etag)) {
+            return new Response(304, headers, null);
+        }
+        if (variant != null) {
+            headers.put("Content-Encoding", variant.encoding);
+        }
+        ByteBuffer data = variant != null ? variant.data : entry.data;
+        headers.put("Content-Length", String.valueOf(data.capacity()));
+        // a view per response: position and limit are per reader, the mapping is shared
+        return new Response(200, headers, head ? null : data.duplicate());
+    }
+
+    private Entry lookup(String name) throws IOException {
+        Path file = root.resolve(name.substring(1)).normalize();
+        // no escaping the root (../), no dotfiles, no serving the precompressed copies directly
+        String fileName = file.getFileName() == null ? "" : file.getFileName().toString();
+        if (!file.startsWith(root) || fileName.startsWith(".") || fileName.endsWith(".br")
+                || fileName.endsWith(".gz")) {
+            return null;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            cache.remove(file);
+            return null;
+        }
+        if (!attrs.isRegularFile() || attrs.size() > Integer.MAX_VALUE) {
+            return null;
+        }
+        long modified = attrs.lastModifiedTime().toMillis();
+        Entry entry = cache.get(file);
+        if (entry != null && entry.size == attrs.size() && entry.modified == modified) {
+            return entry;
+        }
+        entry = load(file, fileName, attrs.size(), modified);
+        cache.put(file, entry);
+        return entry;
+    }
+
+    private static Entry load(Path file, String fileName, long size, long modified)
+            throws IOException {
+        int dot = fileName.lastIndexOf('.');
+        String ext = dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return new Entry(size, modified, map(file), etag(size, modified),
+                TYPES.getOrDefault(ext, "application/octet-stream"),
+                HASHED.matcher(fileName).find(),
+                variant(file.resolveSibling(fileName + ".br"), "br", modified),
+                variant(file.resolveSibling(fileName + ".gz"), Compression.GZIP, modified));
+    }
+
+    // A precompressed copy older than the file it was made from is stale and ignored
+    private static Variant variant(Path file, String encoding, long sourceModified)
+            throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        long modified = attrs.lastModifiedTime().toMillis();
+        if (!attrs.isRegularFile() || modified < sourceModified
+                || attrs.size() > Integer.MAX_VALUE) {
+            return null;
+        }
+        return new Variant(encoding, map(file), etag(attrs.size(), modified));
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        // the mapping stays valid after the channel is closed
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    // each variant is its own file, so its own size and time already tell it apart
+    private static String etag(long size, long modified) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+    }
+
+    private static String lastSegment(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
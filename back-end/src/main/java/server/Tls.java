@@ -0,0 +1,129 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsExchange;
+import com.sun.net.httpserver.HttpsParameters;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTPS for the jdk engine: an SSLContext built from a local keystore, with the server session
+ * cache sized and timed so returning clients resume instead of paying for a full handshake,
+ * and counters that show how often that works.
+ *
+ * <p>A resumed session (from the cache or a ticket) keeps the creation time of the handshake
+ * that first set it up, so a connection whose session is older than the connection itself
+ * skipped the key exchange and certificate signature.
+ */
+public class Tls {
+
+    public static class Options {
+        public String keystore;
+        public String keystorePassword = "";
+        public String keystoreType = "PKCS12";
+        public String keyPassword;                // null: same as the keystore's
+        public List<String> protocols = List.of("TLSv1.3", "TLSv1.2");
+        public int sessionCacheSize = 20_000;     // server-side sessions kept for resumption
+        public int sessionTimeoutSeconds = 3600;
+        public boolean sessionTickets = true;     // stateless resumption, no cache entry needed
+    }
+
+    // connections whose first request has not arrived yet; dropped after this long
+    private static final long PENDING_MAX_AGE_MILLIS = 60_000;
+    private static final int PENDING_SWEEP_SIZE = 10_000;
+
+    private final SSLContext context;
+    private final String[] protocols;
+    private final Map<InetSocketAddress, Long> pending = new ConcurrentHashMap<>();
+    private final LongAdder handshakes = new LongAdder();
+    private final LongAdder full = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+
+    public Tls(Options options) throws IOException {
+        // read when the JSSE classes initialise, so it has to be set before the first SSLContext
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension",
+                String.valueOf(options.sessionTickets));
+        try (InputStream in = Files.newInputStream(Path.of(options.keystore))) {
+            KeyStore ks = KeyStore.getInstance(options.keystoreType);
+            ks.load(in, options.keystorePassword.toCharArray());
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(
+                    KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(ks, (options.keyPassword != null ? options.keyPassword
+                    : options.keystorePassword).toCharArray());
+            context = SSLContext.getInstance("TLS");
+            context.init(kmf.getKeyManagers(), null, null);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot load keystore " + options.keystore + ": "
+                    + e.getMessage(), e);
+        }
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(options.sessionCacheSize);
+        sessions.setSessionTimeout(options.sessionTimeoutSeconds);
+        this.protocols = options.protocols.toArray(new String[0]);
+    }
+
+    /** Called by HttpsServer once per accepted connection, before its handshake. */
+    public HttpsConfigurator configurator() {
+        return new HttpsConfigurator(context) {
+            @Override
+            public void configure(HttpsParameters params) {
+                SSLParameters ssl = context.getDefaultSSLParameters();
+                ssl.setProtocols(protocols);
+                params.setSSLParameters(ssl);
+                handshakes.increment();
+                long now = System.currentTimeMillis();
+                if (pending.size() > PENDING_SWEEP_SIZE) {
+                    // handshakes that failed or connections that never sent a request
+                    pending.values().removeIf(t -> now - t > PENDING_MAX_AGE_MILLIS);
+                }
+                pending.put(params.getClientAddress(), now);
+            }
+        };
+    }
+
+    // First request on a connection tells whether its handshake was a resumption
+    void onExchange(HttpExchange exchange) {
+        if (!(exchange instanceof HttpsExchange https)) {
+            return;
+        }
+        Long connected = pending.remove(exchange.getRemoteAddress());
+        if (connected == null) {
+            return; // a later request on a kept-alive connection
+        }
+        if (https.getSSLSession().getCreationTime() < connected) {
+            resumed.increment();
+        } else {
+            full.increment();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        long f = full.sum();
+        long r = resumed.sum();
+        s.put("handshakes", handshakes.sum());
+        s.put("full", f);
+        s.put("resumed", r);
+        s.put("resumedRatio", f + r == 0 ? 0.0 : (double) r / (f + r));
+        s.put("cachedSessions",
+                Collections.list(context.getServerSessionContext().getIds()).size());
+        return s;
+    }
+}
@@ -0,0 +1,138 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs N copies of the server as child JVMs bound to the same port with SO_REUSEPORT, so
+ * the kernel spreads connections across them. A worker that exits is started again after
+ * a short delay, doubling while it keeps dying quickly.
+ */
+public class WorkerSupervisor {
+
+    // Set on children so they bind as a worker instead of supervising again
+    public static final String WORKER_ENV = "SERVER_WORKER_ID";
+
+    private static final long MIN_RESTART_DELAY_MILLIS = 500;
+    private static final long MAX_RESTART_DELAY_MILLIS = 30_000;
+    private static final long STABLE_AFTER_MILLIS = 10_000;
+
+    private final int workers;
+    private final Map<String, String> overrides;
+    private final long drainMillis;
+    private final List<Process> processes = new ArrayList<>();
+    private volatile boolean stopping;
+
+    /**
+     * @param overrides   settings forced on every worker, passed as -D (which beats env and
+     *                    the config file)
+     * @param drainMillis how long a worker may take to finish its requests after SIGTERM
+     *                    before it is killed
+     */
+    public WorkerSupervisor(int workers, Map<String, String> overrides, long drainMillis) {
+        this.workers = workers;
+        this.overrides = overrides;
+        this.drainMillis = drainMillis;
+    }
+
+    public static boolean isWorker() {
+        return System.getenv(WORKER_ENV) != null;
+    }
+
+    public void run() throws InterruptedException {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stopAll, "worker-supervisor-stop"));
+        List<Thread> monitors = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            int id = i;
+            monitors.add(Thread.ofPlatform().name("worker-monitor-" + id).start(() -> monitor(id)));
+        }
+        for (Thread t : monitors) {
+            t.join();
+        }
+    }
+
+    private void monitor(int id) {
+        long delay = MIN_RESTART_DELAY_MILLIS;
+        while (!stopping) {
+            long started = System.currentTimeMillis();
+            try {
+                Process p = start(id);
+                int code = p.waitFor();
+                synchronized (processes) {
+                    processes.remove(p);
+                }
+                if (stopping) {
+                    return;
+                }
+                System.out.println("Worker " + id + " exited with " + code + ", restarting");
+            } catch (IOException e) {
+                System.out.println("Worker " + id + " failed to start: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            }
+            // A worker that stayed up for a while gets restarted right away
+            delay = System.currentTimeMillis() - started > STABLE_AFTER_MILLIS
+                    ? MIN_RESTART_DELAY_MILLIS : Math.min(delay * 2, MAX_RESTART_DELAY_MILLIS);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private Process start(int id) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java";
+        // same JVM flags (heap, -D config overrides) as the supervisor; env is inherited
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!arg.contains("jdwp")) { // a debugger port can only be bound once
+                command.add(arg);
+            }
+        }
+        overrides.forEach((k, v) -> command.add("-D" + k + "=" + v));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Server.class.getName());
+        var builder = new ProcessBuilder(command);
+        builder.environment().put(WORKER_ENV, String.valueOf(id));
+        builder.inheritIO();
+        Process p = builder.start();
+        synchronized (processes) {
+            if (stopping) {
+                p.destroy();
+            }
+            processes.add(p);
+        }
+        System.out.println("Started worker " + id + " (pid " + p.pid() + ")");
+        return p;
+    }
+
+    private void stopAll() {
+        stopping = true;
+        List<Process> running;
+        synchronized (processes) {
+            running = new ArrayList<>(processes);
+        }
+        // SIGTERM: each worker drains through its own shutdown hook
+        running.forEach(Process::destroy);
+        long deadline = System.currentTimeMillis() + drainMillis + 5_000;
+        for (Process p : running) {
+            try {
+                long left = Math.max(0, deadline - System.currentTimeMillis());
+                if (!p.waitFor(left, TimeUnit.MILLISECONDS)) {
+                    p.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                p.destroyForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package applogic;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import handler.BatchHandler;
+import handler.GsonTool;
+import handler.StatusCodes;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import request.ParsedRequest;
+
+public class BatchHandlerTests {
+
+    private static ParsedRequest batch(String body) {
+        var request = new ParsedRequest();
+        request.setMethod("POST");
+        request.setPath("/batch");
+        request.setCookieValue("auth", String.valueOf(Math.random()));
+        request.setBody(body);
+        return request;
+    }
+
+    @Test(singleThreaded = true)
+    public void runsEachRequestWithOneSessionLookup() {
+        var tools = new CollectionTestTools();
+        var auth = tools.createLogin();
+
+        var res = new BatchHandler().handleRequest(batch("{\"requests\":["
+                + "{\"method\":\"GET\",\"path\":\"/auth/whoami\"},"
+                + "{\"path\":\"/auth/me\"},"
+                + "{\"method\":\"POST\",\"path\":\"/goals/list\"},"
+                + "{\"method\":\"GET\",\"path\":\"/nope\"}]}")).build();
+        Assert.assertEquals(res.status, StatusCodes.OK);
+
+        JsonArray data = GsonTool.GSON.fromJson(res.body, JsonObject.class).getAsJsonArray("data");
+        Assert.assertEquals(data.size(), 4);
+        // in request order, each with its own status
+        Assert.assertEquals(data.get(0).getAsJsonObject().get("status").getAsInt(), 200);
+        Assert.assertEquals(data.get(0).getAsJsonObject().getAsJsonObject("body")
+                .getAsJsonArray("data").get(0).getAsJsonObject().get("userName").getAsString(),
+                auth.getUserName());
+        Assert.assertEquals(data.get(1).getAsJsonObject().get("path").getAsString(), "/auth/me");
+        Assert.assertEquals(data.get(2).getAsJsonObject().get("status").getAsInt(), 405);
+        Assert.assertEquals(data.get(3).getAsJsonObject().get("status").getAsInt(), 404);
+
+        Mockito.verify(tools.authfindIterable, Mockito.times(1)).into(Mockito.any());
+    }
+
+    @Test(singleThreaded = true)
+    public void signInRoutesAndNestedBatchesAreRefused() {
+        var tools = new CollectionTestTools();
+        tools.createLogin();
+
+        var res = new BatchHandler().handleRequest(batch("["
+                + "{\"method\":\"POST\",\"path\":\"/login\",\"body\":{\"userName\":\"a\"}},"
+                + "{\"method\":\"POST\",\"path\":\"/batch\",\"body\":[]}]")).build();
+        JsonArray data = GsonTool.GSON.fromJson(res.body, JsonObject.class).getAsJsonArray("data");
+        Assert.assertEquals(data.get(0).getAsJsonObject().get("status").getAsInt(), 400);
+        Assert.assertEquals(data.get(1).getAsJsonObject().get("status").getAsInt(), 400);
+    }
+
+    @Test(singleThreaded = true)
+    public void malformedBatchIsRejected() {
+        var tools = new CollectionTestTools();
+        tools.createLogin();
+
+        Assert.assertEquals(new BatchHandler().handleRequest(batch("{\"requests\":[]}"))
+                .build().status, StatusCodes.BAD_REQUEST);
+        Assert.assertEquals(new BatchHandler().handleRequest(batch("[{\"method\":\"GET\"}]"))
+                .build().status, StatusCodes.BAD_REQUEST);
+    }
+}
@@ -1,10 +1,13 @@
 package applogic;
 
-import dto.TransactionDto;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import handler.HandlerFactory;
 import handler.StatusCodes;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import org.bson.Document;
 import org.mockito.Mockito;
 import org.testng.Assert;
@@ -24,13 +27,24 @@ public class GetTransactionsTests {
 
     List<Document> returnList = new ArrayList<>();
     returnList.add(new Document("transactionType", "Deposit"));
-    Mockito.doReturn(returnList).when(tools.transactionfindIterable).into(Mockito.any());
+    Mockito.doAnswer(invocation -> {
+      Consumer<Document> action = invocation.getArgument(0);
+      returnList.forEach(action);
+      return null;
+    }).when(tools.transactionfindIterable).forEach(Mockito.any());
 
     var handler = HandlerFactory.getHandler(parsedRequest);
     var builder = handler.handleRequest(parsedRequest);
     var res = builder.build();
     Assert.assertEquals(res.status, StatusCodes.OK);
-    Assert.assertEquals(builder.getBody().data.size(), 1);
+    Assert.assertTrue(builder.isStreaming());
+
+    String json = new String(builder.serializeBody(), StandardCharsets.UTF_8);
+    JsonObject body = JsonParser.parseString(json).getAsJsonObject();
+    Assert.assertTrue(body.get("status").getAsBoolean());
+    Assert.assertEquals(body.getAsJsonArray("data").size(), 1);
+    Assert.assertEquals(body.getAsJsonArray("data").get(0).getAsJsonObject()
+        .get("transactionType").getAsString(), "Deposit");
   }
 
 }
@@ -0,0 +1,75 @@
+package config;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+public class AppConfigTests {
+
+    private static Properties props(String... kv) {
+        Properties p = new Properties();
+        for (int i = 0; i < kv.length; i += 2) {
+            p.setProperty(kv[i], kv[i + 1]);
+        }
+        return p;
+    }
+
+    @Test
+    public void systemPropertyBeatsEnvBeatsFile() {
+        var config = new AppConfig(
+                props("server.port", "1", "server.backlog", "2", "server.threads", "3"),
+                "app.properties",
+                Map.of("SERVER_PORT", "10", "SERVER_BACKLOG", "20"),
+                props("server.port", "100"));
+        Assert.assertEquals(100, config.getInt("server.port", 0));
+        Assert.assertEquals(20, config.getInt("server.backlog", 0));
+        Assert.assertEquals(3, config.getInt("server.threads", 0));
+        Assert.assertEquals(4, config.getInt("server.queue", 4));
+    }
+
+    @Test
+    public void blankValuesFallThrough() {
+        var config = new AppConfig(props("compression", "false"), "app.properties",
+                Map.of("COMPRESSION", " "), new Properties());
+        Assert.assertFalse(config.getBoolean("compression", true));
+    }
+
+    @Test
+    public void listsAreTrimmed() {
+        var config = new AppConfig(new Properties(), null,
+                Map.of("CORS_ALLOWED_ORIGINS", "https://a.example, ,https://b.example "),
+                new Properties());
+        Assert.assertEquals(List.of("https://a.example", "https://b.example"),
+                config.getList("cors.allowed.origins", List.of()));
+        Assert.assertEquals(List.of("x"), config.getList("other.list", List.of("x")));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void malformedNumberFails() {
+        new AppConfig(new Properties(), null, Map.of("SERVER_PORT", "12ab"), new Properties())
+                .getInt("server.port", 1299);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void outOfRangeIntFails() {
+        new AppConfig(new Properties(), null, Map.of("SERVER_PORT", "3000000000"),
+                new Properties()).getInt("server.port", 1299);
+    }
+
+    @Test
+    public void describeShowsSourcesAndMasksSecrets() {
+        var config = new AppConfig(props("mongo.db", "bank"), "conf/app.properties",
+                Map.of("MONGO_URL", "mongodb://app:hunter2@db:27017/bank"), new Properties());
+        config.getString("mongo.url", "");
+        config.getString("mongo.db", "");
+        config.getInt("server.port", 1299);
+        String out = config.describe();
+        Assert.assertTrue(out.contains("mongo.url = mongodb://app:****@db:27017/bank  (env MONGO_URL)"));
+        Assert.assertTrue(out.contains("mongo.db = bank  (conf/app.properties)"));
+        Assert.assertTrue(out.contains("server.port = 1299  (default)"));
+        Assert.assertFalse(out.contains("hunter2"));
+    }
+}
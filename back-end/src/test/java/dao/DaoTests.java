@@ -4,11 +4,16 @@ import applogic.CollectionTestTools;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.UpdateOptions;
 import dto.AuthDto;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
+import org.junit.Assert;
 import org.mockito.Mockito;
 import org.testng.annotations.Test;
 
@@ -37,4 +42,37 @@ public class DaoTests {
     // Please use replace one to update existing objects
     Mockito.verify(mongoCollection).replaceOne(Mockito.any(), Mockito.any());
   }
+
+  @Test
+  public void readsCarryTheRequestDeadline(){
+    var test = new CollectionTestTools();
+    Mockito.doReturn(test.authfindIterable).when(test.authfindIterable)
+        .maxTime(Mockito.anyLong(), Mockito.any());
+    Mockito.doReturn(new ArrayList()).when(test.authfindIterable).into(Mockito.any());
+    var deadline = new Deadline(System.nanoTime());
+    deadline.limit(5000);
+    Deadline.bind(deadline);
+    try {
+      AuthDao.getInstance().query(new Document());
+      Mockito.verify(test.authfindIterable)
+          .maxTime(Mockito.longThat(ms -> ms > 0 && ms <= 5000), Mockito.eq(TimeUnit.MILLISECONDS));
+
+      // once out of time, reads are refused before reaching Mongo
+      deadline.limit(1);
+      try {
+        Thread.sleep(5);
+        AuthDao.getInstance().query(new Document());
+        Assert.fail("expected DeadlineExceededException");
+      } catch (DeadlineExceededException | InterruptedException expected) {
+      }
+      Mockito.verify(test.mockAuthCollection, Mockito.times(1)).find((Bson) Mockito.any());
+
+      // after a write the request runs to completion
+      AuthDao.getInstance().put(new AuthDto());
+      AuthDao.getInstance().query(new Document());
+      Mockito.verify(test.mockAuthCollection, Mockito.times(2)).find((Bson) Mockito.any());
+    } finally {
+      Deadline.bind(null);
+    }
+  }
 }
@@ -0,0 +1,130 @@
+package request;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class HttpRequestDecoderTests {
+
+    private static final String DEPOSIT = "POST /deposit?x=1 HTTP/1.1\r\n"
+            + "Host: localhost:1299\r\n"
+            + "Content-Type: application/json\r\n"
+            + "Content-Length: 14\r\n"
+            + "\r\n"
+            + "{\"amount\":5.0}";
+
+    private static ByteBuffer buffer(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String text(ByteBuffer body) {
+        return StandardCharsets.UTF_8.decode(body).toString();
+    }
+
+    @Test
+    public void decodesHeadAndBody() {
+        var decoder = new HttpRequestDecoder(8192);
+        ByteBuffer in = buffer(DEPOSIT);
+        HttpRequestDecoder.Head head = decoder.decodeHead(in);
+        Assert.assertEquals("POST", head.method());
+        Assert.assertEquals("/deposit", head.path());
+        Assert.assertEquals("x=1", head.rawQuery());
+        Assert.assertEquals("HTTP/1.1", head.version());
+        Assert.assertEquals(3, head.fieldCount());
+        Assert.assertEquals(14, head.contentLength());
+        // a colon inside a value is part of the value
+        Assert.assertEquals("localhost:1299", head.header("host"));
+
+        ByteBuffer body = decoder.decodeBody(in, 14);
+        Assert.assertEquals("{\"amount\":5.0}", text(body));
+        Assert.assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    public void headSplitAcrossReadsResumes() {
+        var decoder = new HttpRequestDecoder(8192);
+        ByteBuffer in = ByteBuffer.allocate(512);
+        byte[] all = DEPOSIT.getBytes(StandardCharsets.ISO_8859_1);
+        HttpRequestDecoder.Head head = null;
+        ByteBuffer body = null;
+        // one byte per read, the worst case for a slow client
+        for (int i = 0; i < all.length && body == null; i++) {
+            in.put(all[i]);
+            in.flip();
+            if (head == null) {
+                head = decoder.decodeHead(in);
+            }
+            if (head != null) {
+                body = decoder.decodeBody(in, 14);
+            }
+            in.compact();
+        }
+        Assert.assertEquals("application/json", head.header("Content-Type"));
+        Assert.assertEquals("{\"amount\":5.0}", text(body));
+        Assert.assertEquals(0, in.position());
+    }
+
+    @Test
+    public void pipelinedRequestsDecodeOneAfterTheOther() {
+        var decoder = new HttpRequestDecoder(8192);
+        ByteBuffer in = buffer("GET /accounts/list HTTP/1.1\r\n\r\n"
+                + "GET /goals/list HTTP/1.1\r\nCookie: auth=x\r\n\r\n");
+        Assert.assertEquals("/accounts/list", decoder.decodeHead(in).path());
+        Assert.assertEquals(0, decoder.decodeBody(in, 0).remaining());
+        HttpRequestDecoder.Head second = decoder.decodeHead(in);
+        Assert.assertEquals("/goals/list", second.path());
+        Assert.assertEquals("x", second.toRequest().getCookieValue("auth"));
+    }
+
+    @Test
+    public void bareLineFeedsAndLeadingBlankLinesAreAccepted() {
+        var decoder = new HttpRequestDecoder(8192);
+        HttpRequestDecoder.Head head = decoder.decodeHead(
+                buffer("\r\nGET /x HTTP/1.1\nAccept:  */* \n\n"));
+        Assert.assertEquals("/x", head.path());
+        Assert.assertEquals("*/*", head.header("Accept"));
+    }
+
+    @Test
+    public void oversizedHeadIsRefused() {
+        var decoder = new HttpRequestDecoder(64);
+        try {
+            decoder.decodeHead(buffer("GET / HTTP/1.1\r\nX-Pad: " + "a".repeat(100) + "\r\n"));
+            Assert.fail("expected too large");
+        } catch (MalformedRequestException e) {
+            Assert.assertTrue(e.isTooLarge());
+        }
+    }
+
+    @Test
+    public void malformedLinesAreRefused() {
+        String[] bad = {
+            "GET\r\n\r\n",
+            "GET /x HTTP/1.1\r\nNoColon\r\n\r\n",
+            "GET /x HTTP/1.1\r\nName : v\r\n\r\n",
+            "GET /x HTTP/1.1\r\nA: b\r\n folded\r\n\r\n",
+        };
+        for (String request : bad) {
+            try {
+                new HttpRequestDecoder(8192).decodeHead(buffer(request));
+                Assert.fail("accepted " + request);
+            } catch (MalformedRequestException e) {
+                Assert.assertFalse(e.isTooLarge());
+            }
+        }
+    }
+
+    @Test
+    public void invalidContentLengthIsRefused() {
+        HttpRequestDecoder.Head head = new HttpRequestDecoder(8192)
+                .decodeHead(buffer("POST /x HTTP/1.1\r\nContent-Length: -3\r\n\r\n"));
+        try {
+            head.contentLength();
+            Assert.fail("accepted a negative length");
+        } catch (MalformedRequestException e) {
+            Assert.assertFalse(e.isTooLarge());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package request;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParsedRequestTests {
+
+    @Test
+    public void queryIsDecodedAndMultiValued() {
+        ParsedRequest req = CustomParser.parse(
+                "GET /transactions?limit=5&tag=a%20b&tag=c+d&flag&=x HTTP/1.1\r\n\r\n");
+        Assert.assertEquals("/transactions", req.getPath());
+        Assert.assertEquals("5", req.getQueryParam("limit"));
+        Assert.assertEquals(List.of("a b", "c d"), req.getQueryParams("tag"));
+        Assert.assertEquals("", req.getQueryParam("flag"));
+        Assert.assertNull(req.getQueryParam("missing"));
+        Assert.assertTrue(req.getQueryParams("missing").isEmpty());
+    }
+
+    @Test
+    public void malformedEscapeIsKeptAsSent() {
+        var req = new ParsedRequest();
+        req.setRawQuery("q=100%");
+        Assert.assertEquals("100%", req.getQueryParam("q"));
+    }
+
+    @Test
+    public void headersAreCaseInsensitive() {
+        ParsedRequest req = CustomParser.parse("POST /deposit HTTP/1.1\r\n"
+                + "content-type: application/json\r\nX-Request-Timeout-Ms: 50\r\n\r\n{}");
+        Assert.assertEquals("application/json", req.getHeaderValue("Content-Type"));
+        Assert.assertEquals("50", req.getHeaderValue("x-request-timeout-ms"));
+        Assert.assertNull(req.getHeaderValue("Origin"));
+        Assert.assertEquals("{}", req.getBody());
+    }
+
+    @Test
+    public void nonAsciiTextSurvivesParsing() {
+        ParsedRequest req = CustomParser.parse("POST /deposit HTTP/1.1\r\n"
+                + "X-Note: café\r\n\r\n{\"note\":\"€5\"}");
+        Assert.assertEquals("café", req.getHeaderValue("X-Note"));
+        Assert.assertEquals("{\"note\":\"€5\"}", req.getBody());
+    }
+
+    @Test
+    public void headersSetLaterWinOverTheSource() {
+        var req = new ParsedRequest();
+        req.setHeaders(name -> "Content-Type".equalsIgnoreCase(name) ? "text/plain" : null);
+        req.setHeaderValue("content-type", "application/json");
+        Assert.assertEquals("application/json", req.getHeaderValue("Content-Type"));
+    }
+
+    @Test
+    public void cookieHeaderIsParsedOnce() {
+        var lookups = new AtomicInteger();
+        var req = new ParsedRequest();
+        req.setHeaders(name -> {
+            if (!"Cookie".equalsIgnoreCase(name)) {
+                return null;
+            }
+            lookups.incrementAndGet();
+            return "theme=dark; auth=abc=def ;empty=";
+        });
+        Assert.assertEquals("abc=def", req.getCookieValue("auth"));
+        Assert.assertEquals("dark", req.getCookieValue("theme"));
+        Assert.assertEquals("", req.getCookieValue("empty"));
+        Assert.assertNull(req.getCookieValue("missing"));
+        Assert.assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void explicitCookieWinsOverTheHeader() {
+        var req = new ParsedRequest();
+        req.setHeaderValue("Cookie", "auth=from-header");
+        req.setCookieValue("auth", "explicit");
+        Assert.assertEquals("explicit", req.getCookieValue("auth"));
+    }
+}
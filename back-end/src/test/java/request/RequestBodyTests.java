@@ -0,0 +1,48 @@
+package request;
+
+import com.google.gson.JsonObject;
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+public class RequestBodyTests {
+
+    private static ParsedRequest withBody(String json, long contentLength, long max) {
+        var req = new ParsedRequest();
+        req.setBodyStream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                contentLength);
+        req.setMaxBodyBytes(max);
+        return req;
+    }
+
+    @Test
+    public void decodesStraightFromStream() {
+        var req = withBody("{\"amount\":12.5}", -1, 1024);
+        JsonObject body = req.getBodyAs(JsonObject.class);
+        Assert.assertEquals(12.5, body.get("amount").getAsDouble(), 0.0);
+    }
+
+    @Test
+    public void emptyBodyIsNull() {
+        Assert.assertNull(withBody("", 0, 1024).getBodyAs(JsonObject.class));
+    }
+
+    @Test(expectedExceptions = BodyTooLargeException.class)
+    public void declaredLengthOverLimit() {
+        withBody("{}", 5000, 1024).getBodyAs(JsonObject.class);
+    }
+
+    @Test(expectedExceptions = BodyTooLargeException.class)
+    public void undeclaredLengthStopsAtLimit() {
+        withBody("{\"note\":\"" + "x".repeat(2000) + "\"}", -1, 1024).getBody();
+    }
+
+    @Test
+    public void stringBodyStillWorks() {
+        var req = new ParsedRequest();
+        req.setBody("{\"userName\":\"bob\"}");
+        Assert.assertEquals("bob", req.getBodyAs(JsonObject.class).get("userName").getAsString());
+    }
+}
@@ -0,0 +1,48 @@
+package response;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class ResponseBuilderTests {
+
+    private static String body(HttpResponseBuilder resp) {
+        return new String(resp.serializeBody(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void statusCodeParsesTheStatusLine() {
+        Assert.assertEquals(401, new HttpResponseBuilder().setStatus("401 Unauthorized")
+                .getStatusCode());
+        Assert.assertEquals(204, new HttpResponseBuilder().setStatus(" 204").getStatusCode());
+        Assert.assertEquals(200, new HttpResponseBuilder().getStatusCode());
+        Assert.assertEquals(200, new HttpResponseBuilder().setStatus("OK").getStatusCode());
+        Assert.assertEquals(200, new HttpResponseBuilder().setStatus("").getStatusCode());
+    }
+
+    @Test
+    public void bareResponseSerializesAsNull() {
+        var resp = new HttpResponseBuilder().setStatus("401 Unauthorized");
+        Assert.assertEquals("null", body(resp));
+        Assert.assertTrue(resp.getHeaders().isEmpty());
+    }
+
+    @Test
+    public void emptyPropertiesStillSerialize() {
+        var resp = new HttpResponseBuilder().setStatus("200 OK")
+                .setBody(new RestApiAppResponse<>(true, "hi"));
+        Assert.assertEquals("{\"status\":true,\"message\":\"hi\",\"properties\":{}}", body(resp));
+
+        var withProperty = new RestApiAppResponse<>(true, "hi").addProperty("n", 1);
+        Assert.assertEquals(1, withProperty.properties.get("n"));
+    }
+
+    @Test
+    public void renderedConstantMatchesTheObjectBody() {
+        var message = new RestApiAppResponse<>(false, "Server busy, retry shortly");
+        byte[] canned = HttpResponseBuilder.render(message);
+        Assert.assertEquals(body(new HttpResponseBuilder().setBody(message)),
+                body(new HttpResponseBuilder().setRenderedBody(canned)));
+    }
+}
@@ -26,6 +26,8 @@ public class RoutingTests {
         Assert.assertTrue(HandlerFactory.getHandler(basicRequest) instanceof CreateDepositHandler);
         basicRequest.setPath("/withdraw");
         Assert.assertTrue(HandlerFactory.getHandler(basicRequest) instanceof WithdrawHandler);
+        basicRequest.setPath("/batch");
+        Assert.assertTrue(HandlerFactory.getHandler(basicRequest) instanceof BatchHandler);
     }
 
     @Test
@@ -44,6 +46,94 @@ public class RoutingTests {
         Assert.assertNotSame(res.getClass(), res2.getClass());
     }
 
+    @Test
+    public void testRouteClasses() {
+        Assert.assertEquals(RouteClass.AUTH, HandlerFactory.getRouteClass("/login"));
+        Assert.assertEquals(RouteClass.AUTH, HandlerFactory.getRouteClass("/createUser"));
+        Assert.assertEquals(RouteClass.READ, HandlerFactory.getRouteClass("/goals/list"));
+        Assert.assertEquals(RouteClass.MONEY, HandlerFactory.getRouteClass("/deposit"));
+        Assert.assertEquals(RouteClass.MONEY, HandlerFactory.getRouteClass("/accounts/transfer"));
+        Assert.assertEquals(RouteClass.OTHER, HandlerFactory.getRouteClass("/unknown"));
+    }
+
+    @Test
+    public void testMethodsAndPathParams() {
+        var get = new ParsedRequest();
+        get.setMethod("GET");
+        get.setPath("/goals/list");
+        var handler = HandlerFactory.getHandler(get);
+        Assert.assertTrue(handler instanceof handler.goals.ListGoalHandler);
+        // built once, not per request
+        Assert.assertSame(handler, HandlerFactory.getHandler(get));
+
+        get.setMethod("HEAD");
+        Assert.assertTrue(HandlerFactory.getHandler(get) instanceof handler.goals.ListGoalHandler);
+
+        var post = new ParsedRequest();
+        post.setMethod("POST");
+        post.setPath("/goals/list");
+        var resp = HandlerFactory.getHandler(post).handleRequest(post);
+        Assert.assertEquals(StatusCodes.METHOD_NOT_ALLOWED, resp.getStatus());
+        Assert.assertEquals("GET", resp.getHeaders().get("Allow"));
+
+        var delete = new ParsedRequest();
+        delete.setMethod("DELETE");
+        delete.setPath("/goals/64b7f0c2a1b2c3d4e5f60718");
+        Assert.assertTrue(HandlerFactory.getHandler(delete)
+                instanceof handler.goals.DeleteGoalHandler);
+        Assert.assertEquals("64b7f0c2a1b2c3d4e5f60718", delete.getPathParam("id"));
+
+        var missing = new ParsedRequest();
+        missing.setMethod("GET");
+        missing.setPath("/goals/abc/nothing");
+        Assert.assertTrue(HandlerFactory.getHandler(missing) instanceof FallbackHandler);
+    }
+
+    @Test
+    public void testRegistryPrefersLiterals() {
+        BaseHandler literal = req -> null;
+        BaseHandler param = req -> null;
+        var routes = new RouteRegistry()
+                .add("GET", "/goals/list", literal, RouteClass.READ)
+                .add("GET", "/goals/{id}", param, RouteClass.READ);
+        Assert.assertSame(literal, routes.find("GET", "/goals/list").route().handler());
+        var match = routes.find("GET", "/goals/42/");
+        Assert.assertSame(param, match.route().handler());
+        Assert.assertEquals("42", match.params().get("id"));
+        Assert.assertFalse(routes.find("GET", "/goals").found());
+        Assert.assertTrue(routes.find("GET", "/goals").allowed().isEmpty());
+    }
+
+    @Test
+    public void testRegistryBacktracksPastLiterals() {
+        BaseHandler list = req -> null;
+        BaseHandler contribute = req -> null;
+        var routes = new RouteRegistry()
+                .add("GET", "/goals/transfer", list, RouteClass.READ)
+                .add("POST", "/goals/{id}/contribute", contribute, RouteClass.MONEY);
+        var match = routes.find("POST", "/goals/transfer/contribute");
+        Assert.assertSame(contribute, match.route().handler());
+        Assert.assertEquals("transfer", match.params().get("id"));
+        Assert.assertSame(list, routes.find("GET", "/goals/transfer").route().handler());
+        Assert.assertTrue(routes.find("GET", "/goals/transfer/other").allowed().isEmpty());
+    }
+
+    @Test
+    public void testRouteResolvedOncePerRequest() {
+        var req = new ParsedRequest();
+        req.setMethod("GET");
+        req.setPath("/goals/list");
+        HandlerFactory.getHandler(req);
+        var match = req.getRoute();
+        Assert.assertNotNull(match);
+        HandlerFactory.requiresAuth(req);
+        HandlerFactory.isVersioned(req);
+        Assert.assertSame(match, req.getRoute());
+        req.setPath("/login");
+        Assert.assertNull(req.getRoute());
+        Assert.assertFalse(HandlerFactory.requiresAuth(req));
+    }
+
     @Test
     public void getRequestHeaders() {
         int min = 2;
@@ -0,0 +1,143 @@
+package server;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ChangeEventsTests {
+
+    // Records what a client would read; blocks sends while the gate is closed
+    private static class FakeSink implements ChangeEvents.Sink {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile String closedBy;
+        volatile CountDownLatch gate = new CountDownLatch(0);
+
+        @Override
+        public void send(byte[] data) throws IOException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (closed.getCount() == 0) {
+                throw new IOException("closed");
+            }
+            received.add(new String(data, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() {
+            closedBy = Thread.currentThread().getName();
+            closed.countDown();
+        }
+
+        String next() throws InterruptedException {
+            String s = received.poll(2, TimeUnit.SECONDS);
+            Assert.assertNotNull(s);
+            return s;
+        }
+    }
+
+    @Test
+    public void changesGoOnlyToThatUsersStreams() throws InterruptedException {
+        var events = new ChangeEvents(8, 60_000);
+        var alice = new FakeSink();
+        var bob = new FakeSink();
+        events.subscribe("events-alice", alice);
+        events.subscribe("events-bob", bob);
+        Assert.assertTrue(alice.next().contains("event: ready"));
+        Assert.assertTrue(bob.next().contains("event: ready"));
+
+        events.changed("events-alice", 7, "/createDeposit");
+        String change = alice.next();
+        Assert.assertTrue(change.startsWith("event: change\n"));
+        Assert.assertTrue(change.contains("\"version\":7"));
+        Assert.assertTrue(change.contains("\"source\":\"/createDeposit\""));
+        Assert.assertNull(bob.received.poll(200, TimeUnit.MILLISECONDS));
+
+        // a transfer may touch anyone's data
+        events.changed(null, 3, "/transfer");
+        Assert.assertTrue(alice.next().contains("\"generation\":3"));
+        Assert.assertTrue(bob.next().contains("\"generation\":3"));
+        events.closeAll();
+    }
+
+    @Test
+    public void slowClientIsToldToResync() throws InterruptedException {
+        var events = new ChangeEvents(2, 60_000);
+        var slow = new FakeSink();
+        slow.gate = new CountDownLatch(1);
+        events.subscribe("events-slow", slow);
+        for (int i = 1; i <= 10; i++) {
+            events.changed("events-slow", i, "/withdraw");
+        }
+        slow.gate.countDown();
+        Assert.assertTrue(slow.next().contains("event: ready"));
+        StringBuilder rest = new StringBuilder();
+        String s;
+        while ((s = slow.received.poll(300, TimeUnit.MILLISECONDS)) != null) {
+            rest.append(s);
+        }
+        Assert.assertTrue(rest.toString().contains("event: resync"));
+        Assert.assertFalse(rest.toString().contains("\"version\":1,"));
+        Assert.assertTrue((long) events.stats().get("resyncs") > 0);
+        events.closeAll();
+    }
+
+    @Test
+    public void idleStreamGetsHeartbeats() throws InterruptedException {
+        var events = new ChangeEvents(8, 50);
+        var sink = new FakeSink();
+        events.subscribe("events-idle", sink);
+        sink.next();
+        Assert.assertEquals(": ping\n\n", sink.next());
+        events.closeAll();
+    }
+
+    @Test
+    public void closeAllLetsEachStreamCloseItself() throws InterruptedException {
+        var events = new ChangeEvents(8, 60_000);
+        var sink = new FakeSink();
+        events.subscribe("events-shutdown", sink);
+        sink.next();
+        events.changed("events-shutdown", 1, "/deposit");
+        events.changed("events-shutdown", 2, "/deposit");
+        sink.gate = new CountDownLatch(1);
+        events.changed("events-shutdown", 3, "/deposit");
+        events.closeAll();
+        // not closed under a send that is still writing
+        Assert.assertFalse(sink.closed.await(200, TimeUnit.MILLISECONDS));
+        sink.gate.countDown();
+        Assert.assertTrue(sink.closed.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals("events-events-shutdown", sink.closedBy);
+        Assert.assertEquals(0, events.stats().get("subscribers"));
+    }
+
+    @Test
+    public void closedClientIsUnsubscribed() throws InterruptedException {
+        var events = new ChangeEvents(8, 50);
+        var sink = new FakeSink();
+        events.subscribe("events-gone", sink);
+        sink.next();
+        sink.close(); // the next heartbeat fails
+        long deadline = System.currentTimeMillis() + 2000;
+        while ((int) events.stats().get("subscribers") > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(0, events.stats().get("subscribers"));
+
+        // nothing is streamed once shutting down
+        events.closeAll();
+        var late = new FakeSink();
+        events.subscribe("events-late", late);
+        Assert.assertTrue(late.closed.await(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,49 @@
+package server;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+import response.HttpResponseBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class CompressionTests {
+
+    private final Compression compression = new Compression(100, 6, 2);
+
+    @Test
+    public void negotiatesByQuality() {
+        Assert.assertEquals("gzip", compression.negotiate("gzip, deflate, br"));
+        Assert.assertEquals("deflate", compression.negotiate("gzip;q=0.5, deflate"));
+        Assert.assertEquals("deflate", compression.negotiate("gzip;q=0, *"));
+        Assert.assertNull(compression.negotiate("identity"));
+        Assert.assertNull(compression.negotiate(null));
+    }
+
+    @Test
+    public void gzipAndDeflateRoundTrip() throws IOException {
+        byte[] body = "{\"amount\":12.5},".repeat(200).getBytes(StandardCharsets.UTF_8);
+        // twice each, so the second pass uses a pooled (reset) deflater
+        for (int i = 0; i < 2; i++) {
+            byte[] gz = compression.compress(body, Compression.GZIP);
+            Assert.assertTrue(gz.length < body.length / 4);
+            Assert.assertArrayEquals(body,
+                    new GZIPInputStream(new ByteArrayInputStream(gz)).readAllBytes());
+
+            byte[] zz = compression.compress(body, Compression.DEFLATE);
+            Assert.assertArrayEquals(body,
+                    new InflaterInputStream(new ByteArrayInputStream(zz)).readAllBytes());
+        }
+    }
+
+    @Test
+    public void skipsSmallBodies() {
+        var resp = new HttpResponseBuilder().setStatus("200 OK");
+        Assert.assertFalse(compression.shouldCompress(resp, 99));
+        Assert.assertTrue(compression.shouldCompress(resp, 100));
+        Assert.assertTrue(compression.shouldCompress(resp.setStreamingBody(w -> { }), -1));
+    }
+}
@@ -0,0 +1,39 @@
+package server;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+public class ConcurrencyLimiterTests {
+
+    @Test
+    public void rejectsOverLimit() {
+        var limiter = new ConcurrencyLimiter(2, 1, 10, 100, 0.5);
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertFalse(limiter.tryAcquire());
+        Assert.assertEquals(1, limiter.getRejected());
+
+        limiter.release(0);
+        Assert.assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void slowRequestsShrinkLimit() {
+        var limiter = new ConcurrencyLimiter(8, 1, 10, 100, 0.5);
+        Assert.assertTrue(limiter.tryAcquire());
+        limiter.release(500_000_000L);
+        Assert.assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void fastRequestsGrowLimitWhenSaturated() {
+        var limiter = new ConcurrencyLimiter(2, 1, 10, 100, 0.5);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue(limiter.tryAcquire());
+            Assert.assertTrue(limiter.tryAcquire());
+            limiter.release(1_000L);
+            limiter.release(1_000L);
+        }
+        Assert.assertTrue(limiter.getLimit() > 2);
+    }
+}
@@ -0,0 +1,51 @@
+package server;
+
+import handler.UserChanges;
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class ETagsTests {
+
+    @Test
+    public void versionTagMovesWithUserWrites() {
+        var etags = new ETags(false);
+        String user = "etag-user-" + Math.random();
+        String before = etags.versionTag(user);
+        Assert.assertEquals(before, etags.versionTag(user));
+
+        UserChanges.bump(user);
+        String afterWrite = etags.versionTag(user);
+        Assert.assertFalse(before.equals(afterWrite));
+
+        UserChanges.bumpAll();
+        Assert.assertFalse(afterWrite.equals(etags.versionTag(user)));
+    }
+
+    @Test
+    public void tagsDifferPerUser() {
+        var etags = new ETags(false);
+        Assert.assertFalse(etags.versionTag("alice").equals(etags.versionTag("bob")));
+    }
+
+    @Test
+    public void bodyTagIsStable() {
+        byte[] body = "{\"status\":true}".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(ETags.bodyTag(body), ETags.bodyTag(body.clone()));
+        byte[] other = "{\"status\":false}".getBytes(StandardCharsets.UTF_8);
+        Assert.assertFalse(ETags.bodyTag(body).equals(ETags.bodyTag(other)));
+    }
+
+    @Test
+    public void ifNoneMatch() {
+        String tag = "\"abc-1-2\"";
+        Assert.assertTrue(ETags.matches(tag, tag));
+        Assert.assertTrue(ETags.matches("\"zzz\", " + tag, tag));
+        Assert.assertTrue(ETags.matches(ETags.withEncoding(tag, Compression.GZIP), tag));
+        Assert.assertTrue(ETags.matches("W/" + tag, tag));
+        Assert.assertTrue(ETags.matches("*", tag));
+        Assert.assertFalse(ETags.matches("\"abc-1-3\"", tag));
+        Assert.assertFalse(ETags.matches(null, tag));
+    }
+}
@@ -0,0 +1,202 @@
+package server;
+
+import dao.Deadline;
+import handler.StatusCodes;
+import org.junit.Assert;
+import org.testng.annotations.Test;
+import request.ParsedRequest;
+import response.HttpResponseBuilder;
+import response.RestApiAppResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class IdempotencyKeysTests {
+
+    private static IdempotencyKeys keys() {
+        return new IdempotencyKeys(null, 100, 3600, 60_000);
+    }
+
+    private static ParsedRequest deposit(String key, String body) {
+        var req = new ParsedRequest();
+        req.setMethod("POST");
+        req.setPath("/deposit");
+        req.setBody(body);
+        if (key != null) {
+            req.setHeaderValue(IdempotencyKeys.HEADER, key);
+        }
+        return req;
+    }
+
+    private static String body(HttpResponseBuilder resp) {
+        return new String(resp.serializeBody(), StandardCharsets.UTF_8);
+    }
+
+    private static HttpResponseBuilder deposited(int n) {
+        return new HttpResponseBuilder().setStatus(StatusCodes.OK)
+                .setBody(new RestApiAppResponse<>(true, "deposit " + n));
+    }
+
+    @Test
+    public void retryReplaysWithoutRunningTheHandlerAgain() {
+        var keys = keys();
+        var calls = new AtomicInteger();
+        HttpResponseBuilder first = keys.execute("alice", deposit("k1", "{\"amount\":5}"),
+                () -> deposited(calls.incrementAndGet()));
+        HttpResponseBuilder retry = keys.execute("alice", deposit("k1", "{\"amount\":5}"),
+                () -> deposited(calls.incrementAndGet()));
+
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(200, retry.getStatusCode());
+        Assert.assertEquals(body(first), body(retry));
+        Assert.assertEquals("true", retry.getHeaders().get("Idempotent-Replayed"));
+    }
+
+    @Test
+    public void keysAreScopedToTheUser() {
+        var keys = keys();
+        var calls = new AtomicInteger();
+        keys.execute("alice", deposit("k1", "{}"), () -> {
+            calls.incrementAndGet();
+            return new HttpResponseBuilder().setStatus(StatusCodes.OK);
+        });
+        keys.execute("bob", deposit("k1", "{}"), () -> {
+            calls.incrementAndGet();
+            return new HttpResponseBuilder().setStatus(StatusCodes.OK);
+        });
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void reusingAKeyForAnotherRequestIs422() {
+        var keys = keys();
+        keys.execute("alice", deposit("k1", "{\"amount\":5}"),
+                () -> new HttpResponseBuilder().setStatus(StatusCodes.OK));
+        HttpResponseBuilder resp = keys.execute("alice", deposit("k1", "{\"amount\":500}"),
+                () -> {
+                    throw new AssertionError("handler must not run");
+                });
+        Assert.assertEquals(422, resp.getStatusCode());
+    }
+
+    @Test
+    public void serverErrorsAreNotKept() {
+        var keys = keys();
+        var calls = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            keys.execute("alice", deposit("k1", "{}"), () -> {
+                calls.incrementAndGet();
+                return new HttpResponseBuilder().setStatus(StatusCodes.SERVER_ERROR);
+            });
+        }
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void failureAfterAWriteKeepsTheKey() {
+        var keys = keys();
+        var calls = new AtomicInteger();
+        Deadline.bind(new Deadline(System.nanoTime()));
+        try {
+            keys.execute("alice", deposit("k1", "{}"), () -> {
+                calls.incrementAndGet();
+                Deadline.beforeWrite(); // e.g. the balance was updated
+                throw new IllegalStateException("Mongo went away");
+            });
+            Assert.fail("expected the handler's exception");
+        } catch (IllegalStateException expected) {
+            // the client sees a 500 and retries
+        } finally {
+            Deadline.bind(null);
+        }
+
+        HttpResponseBuilder retry = keys.execute("alice", deposit("k1", "{}"),
+                () -> deposited(calls.incrementAndGet()));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(500, retry.getStatusCode());
+        Assert.assertEquals("true", retry.getHeaders().get("Idempotent-Replayed"));
+    }
+
+    @Test
+    public void batchEntriesAreJudgedByTheirOwnWrites() {
+        var keys = keys();
+        var batch = new Deadline(System.nanoTime());
+        Deadline.bind(batch.part());
+        try {
+            keys.execute("alice", deposit("entry-1", "{}"), () -> {
+                Deadline.beforeWrite();
+                return deposited(1);
+            });
+        } finally {
+            Deadline.bind(null);
+        }
+        Deadline.bind(batch.part());
+        try {
+            keys.execute("alice", deposit("entry-2", "{}"), () -> {
+                throw new IllegalStateException("failed before writing");
+            });
+            Assert.fail("expected the handler's exception");
+        } catch (IllegalStateException expected) {
+            // the batch answers 500 for this entry
+        } finally {
+            Deadline.bind(null);
+        }
+        Assert.assertTrue(batch.isCommitted());
+
+        // the first entry's write does not pin the second entry's key
+        var calls = new AtomicInteger();
+        HttpResponseBuilder retry = keys.execute("alice", deposit("entry-2", "{}"),
+                () -> deposited(calls.incrementAndGet()));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(200, retry.getStatusCode());
+    }
+
+    @Test
+    public void retryWhileTheFirstAttemptRunsIs409() throws InterruptedException {
+        var keys = keys();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var first = new AtomicReference<HttpResponseBuilder>();
+        Thread t = Thread.ofVirtual().start(() -> first.set(
+                keys.execute("alice", deposit("k1", "{}"), () -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return new HttpResponseBuilder().setStatus(StatusCodes.OK);
+                })));
+        started.await();
+
+        HttpResponseBuilder retry = keys.execute("alice", deposit("k1", "{}"),
+                () -> new HttpResponseBuilder().setStatus(StatusCodes.OK));
+        Assert.assertEquals(409, retry.getStatusCode());
+
+        release.countDown();
+        t.join();
+        Assert.assertEquals(200, first.get().getStatusCode());
+    }
+
+    @Test
+    public void requestsWithoutAKeyAlwaysRun() {
+        var keys = keys();
+        var calls = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            keys.execute("alice", deposit(null, "{}"), () -> {
+                calls.incrementAndGet();
+                return new HttpResponseBuilder().setStatus(StatusCodes.OK);
+            });
+        }
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void overlongKeyIs400() {
+        HttpResponseBuilder resp = keys().execute("alice", deposit("k".repeat(256), "{}"),
+                () -> new HttpResponseBuilder().setStatus(StatusCodes.OK));
+        Assert.assertEquals(400, resp.getStatusCode());
+    }
+}
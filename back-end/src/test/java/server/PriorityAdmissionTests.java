@@ -0,0 +1,79 @@
+package server;
+
+import handler.RouteClass;
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+public class PriorityAdmissionTests {
+
+    @Test
+    public void queuedRequestsStartByPriorityThenArrival() {
+        var limiter = new ConcurrencyLimiter(1, 1, 1, 1000, 0.5);
+        var admission = new PriorityAdmission(limiter, 10, 10_000, Runnable::run);
+        List<String> started = new ArrayList<>();
+
+        admission.admit(RouteClass.READ, () -> started.add("first"), () -> started.add("x"));
+        admission.admit(RouteClass.READ, () -> started.add("read"), () -> started.add("x"));
+        admission.admit(RouteClass.MONEY, () -> started.add("money1"), () -> started.add("x"));
+        admission.admit(RouteClass.MONEY, () -> started.add("money2"), () -> started.add("x"));
+        Assert.assertEquals(List.of("first"), started);
+
+        admission.release(0);
+        admission.release(0);
+        admission.release(0);
+        Assert.assertEquals(List.of("first", "money1", "money2", "read"), started);
+    }
+
+    @Test
+    public void fullQueueShedsLowestPriorityFirst() {
+        var limiter = new ConcurrencyLimiter(1, 1, 1, 1000, 0.5);
+        var admission = new PriorityAdmission(limiter, 1, 10_000, Runnable::run);
+        List<String> shed = new ArrayList<>();
+
+        admission.admit(RouteClass.OTHER, () -> { }, () -> shed.add("running"));
+        admission.admit(RouteClass.READ, () -> { }, () -> shed.add("read"));
+        admission.admit(RouteClass.MONEY, () -> { }, () -> shed.add("money"));
+        Assert.assertEquals(List.of("read"), shed);
+
+        admission.admit(RouteClass.READ, () -> { }, () -> shed.add("read2"));
+        Assert.assertEquals(List.of("read", "read2"), shed);
+    }
+
+    @Test
+    public void rejectedHandOffGivesThePermitBack() {
+        var limiter = new ConcurrencyLimiter(1, 1, 1, 1000, 0.5);
+        var admission = new PriorityAdmission(limiter, 10, 10_000, r -> {
+            throw new RejectedExecutionException("full");
+        });
+        List<String> events = new ArrayList<>();
+
+        admission.admit(RouteClass.READ, () -> events.add("first"), () -> events.add("x"));
+        admission.admit(RouteClass.READ, () -> events.add("queued"), () -> events.add("shed"));
+        admission.release(0);
+
+        Assert.assertEquals(List.of("first", "shed"), events);
+        Assert.assertEquals(0, limiter.getInFlight());
+        Assert.assertEquals(1L, admission.stats().get("shed"));
+    }
+
+    @Test
+    public void expireShedsStaleRequestsAnywhereInTheQueue() throws Exception {
+        var limiter = new ConcurrencyLimiter(1, 1, 1, 1000, 0.5);
+        var admission = new PriorityAdmission(limiter, 10, 20, null);
+        List<String> shed = new ArrayList<>();
+
+        admission.admit(RouteClass.OTHER, () -> { }, () -> shed.add("running"));
+        admission.admit(RouteClass.READ, () -> { }, () -> shed.add("read"));
+        Thread.sleep(40);
+        admission.admit(RouteClass.MONEY, () -> { }, () -> shed.add("money"));
+        admission.expire();
+
+        // the fresh money request is ahead of the stale read and stays queued
+        Assert.assertEquals(List.of("read"), shed);
+        Assert.assertEquals(1, admission.stats().get("queued"));
+    }
+}
@@ -0,0 +1,69 @@
+package server;
+
+import handler.RouteClass;
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTests {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // 60 a minute is one token per second
+    private static RateLimiter limiter(int burst, int maxKeys) {
+        return new RateLimiter(Map.of(RouteClass.AUTH, new RateLimiter.Budget(60, burst)),
+                maxKeys);
+    }
+
+    @Test
+    public void burstThenOnePerInterval() {
+        var limiter = limiter(3, 100);
+        long now = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, limiter.tryAcquire(RouteClass.AUTH, "ip:a", now));
+        }
+        long wait = limiter.tryAcquire(RouteClass.AUTH, "ip:a", now);
+        Assert.assertEquals(SECOND, wait);
+        Assert.assertEquals(1, RateLimiter.retryAfterSeconds(wait));
+
+        Assert.assertTrue(limiter.tryAcquire(RouteClass.AUTH, "ip:a", now + SECOND / 2) > 0);
+        Assert.assertEquals(0, limiter.tryAcquire(RouteClass.AUTH, "ip:a", now + SECOND));
+        Assert.assertEquals(2L, limiter.stats().get("limited"));
+    }
+
+    @Test
+    public void clientsAndUnlimitedClassesAreIndependent() {
+        var limiter = limiter(1, 100);
+        long now = System.nanoTime();
+        Assert.assertEquals(0, limiter.tryAcquire(RouteClass.AUTH, "ip:a", now));
+        Assert.assertTrue(limiter.tryAcquire(RouteClass.AUTH, "ip:a", now) > 0);
+        Assert.assertEquals(0, limiter.tryAcquire(RouteClass.AUTH, "ip:b", now));
+        // no budget configured for READ
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(0, limiter.tryAcquire(RouteClass.READ, "ip:a", now));
+        }
+    }
+
+    @Test
+    public void fullBucketsAreSweptAndNewKeysPastTheCapShareABucket() {
+        var limiter = limiter(2, 2);
+        long now = System.nanoTime();
+        limiter.tryAcquire(RouteClass.AUTH, "ip:a", now);
+        limiter.tryAcquire(RouteClass.AUTH, "ip:b", now);
+        // past the cap new clients draw from one overflow bucket, so a flood stays limited
+        Assert.assertEquals(0, limiter.tryAcquire(RouteClass.AUTH, "ip:c", now));
+        Assert.assertEquals(0, limiter.tryAcquire(RouteClass.AUTH, "ip:d", now));
+        Assert.assertTrue(limiter.tryAcquire(RouteClass.AUTH, "ip:e", now) > 0);
+        Assert.assertEquals(2, limiter.size());
+        Assert.assertEquals(3L, limiter.stats().get("overflowed"));
+
+        // a has used its burst and stays; b is full again by then and goes
+        limiter.tryAcquire(RouteClass.AUTH, "ip:a", now);
+        Assert.assertTrue(limiter.isEmpty(RouteClass.AUTH, "ip:a"));
+        limiter.sweep(now + SECOND + 1);
+        Assert.assertEquals(1, limiter.size());
+        Assert.assertTrue(limiter.tryAcquire(RouteClass.AUTH, "ip:a", now + SECOND / 2) > 0);
+    }
+}
@@ -0,0 +1,291 @@
+package server;
+
+import handler.AuthFilter;
+import handler.RouteClass;
+import org.junit.Assert;
+import org.testng.annotations.Test;
+import request.ParsedRequest;
+import response.HttpResponseBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RequestPipelineTests {
+
+    private static RequestPipeline pipeline() {
+        return pipeline(null);
+    }
+
+    private static RequestPipeline pipeline(RateLimiter rateLimiter) {
+        return pipeline(rateLimiter, null);
+    }
+
+    private static RequestPipeline pipeline(RateLimiter rateLimiter, SingleFlight singleFlight) {
+        return pipeline(new ConcurrencyLimiter(4, 1, 4, 1000, 0.5), rateLimiter, singleFlight);
+    }
+
+    private static RequestPipeline pipeline(ConcurrencyLimiter limiter, RateLimiter rateLimiter,
+                                            SingleFlight singleFlight) {
+        return pipeline(limiter, null, rateLimiter, singleFlight);
+    }
+
+    private static RequestPipeline pipeline(ConcurrencyLimiter limiter, ETags etags,
+                                            RateLimiter rateLimiter, SingleFlight singleFlight) {
+        var admission = new PriorityAdmission(limiter, 4, 1000, Runnable::run);
+        return new RequestPipeline(admission, null,
+                r -> Thread.ofPlatform().daemon().start(r), new EnumMap<>(RouteClass.class),
+                new EnumMap<>(RouteClass.class), etags, null, rateLimiter, singleFlight);
+    }
+
+    private static ParsedRequest request(String path) {
+        var req = new ParsedRequest();
+        req.setMethod("GET");
+        req.setPath(path);
+        return req;
+    }
+
+    private static RequestPipeline.Responder into(CompletableFuture<HttpResponseBuilder> out) {
+        return new RequestPipeline.Responder() {
+            @Override
+            public void respond(HttpResponseBuilder response) {
+                out.complete(response);
+            }
+
+            @Override
+            public void abort() {
+                out.complete(null);
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void drainingTurnsNewRequestsAway() throws Exception {
+        var pipeline = pipeline();
+        pipeline.startDraining();
+        var read = new AtomicBoolean();
+        var out = new CompletableFuture<HttpResponseBuilder>();
+
+        pipeline.submit("/nope", () -> {
+            read.set(true);
+            return request("/nope");
+        }, into(out));
+
+        HttpResponseBuilder resp = out.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(503, resp.getStatusCode());
+        Assert.assertEquals("close", resp.getHeaders().get("Connection"));
+        Assert.assertFalse(read.get());
+        Assert.assertEquals(0, pipeline.getInFlight());
+    }
+
+    @Test
+    public void awaitIdleWaitsForRequestsAlreadyRunning() throws Exception {
+        var pipeline = pipeline();
+        var release = new CountDownLatch(1);
+        var out = new CompletableFuture<HttpResponseBuilder>();
+
+        pipeline.submit("/nope", () -> {
+            await(release);
+            return request("/nope");
+        }, into(out));
+        pipeline.startDraining();
+
+        Assert.assertEquals(1, pipeline.getInFlight());
+        Assert.assertFalse(pipeline.awaitIdle(50));
+        release.countDown();
+        Assert.assertTrue(pipeline.awaitIdle(2000));
+        Assert.assertEquals(404, out.get(1, TimeUnit.SECONDS).getStatusCode());
+    }
+
+    @Test
+    public void requestPastItsDeadlineGets504() throws Exception {
+        var pipeline = pipeline();
+        var out = new CompletableFuture<HttpResponseBuilder>();
+
+        pipeline.submit("/nope", () -> {
+            var req = request("/nope");
+            req.setHeaderValue(RequestPipeline.TIMEOUT_HEADER, "1");
+            sleep(20); // e.g. waiting for admission
+            return req;
+        }, into(out));
+
+        Assert.assertEquals(504, out.get(1, TimeUnit.SECONDS).getStatusCode());
+    }
+
+    @Test
+    public void onlyTimeoutsCutTheConcurrencyLimit() throws Exception {
+        var limiter = new ConcurrencyLimiter(4, 1, 4, 1000, 0.5);
+        var pipeline = pipeline(limiter, null, null);
+        var failed = new CompletableFuture<HttpResponseBuilder>();
+        pipeline.submit("/nope", () -> {
+            throw new IllegalStateException("handler bug");
+        }, into(failed));
+        Assert.assertEquals(500, failed.get(1, TimeUnit.SECONDS).getStatusCode());
+        Assert.assertEquals(4, limiter.getLimit());
+
+        var late = new CompletableFuture<HttpResponseBuilder>();
+        pipeline.submit("/nope", () -> {
+            var req = request("/nope");
+            req.setHeaderValue(RequestPipeline.TIMEOUT_HEADER, "1");
+            sleep(20);
+            return req;
+        }, into(late));
+        Assert.assertEquals(504, late.get(1, TimeUnit.SECONDS).getStatusCode());
+        Assert.assertEquals(2, limiter.getLimit());
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void cancelledRequestIsDropped() throws Exception {
+        var pipeline = pipeline();
+        var release = new CountDownLatch(1);
+        var out = new CompletableFuture<HttpResponseBuilder>();
+
+        var deadline = pipeline.submit("/nope", () -> {
+            await(release);
+            return request("/nope");
+        }, into(out));
+        deadline.cancel(); // the client disconnected
+        release.countDown();
+
+        Assert.assertNull(out.get(1, TimeUnit.SECONDS));
+        Assert.assertTrue(pipeline.awaitIdle(1000));
+    }
+
+    @Test
+    public void clientOverItsBudgetGets429() throws Exception {
+        var rateLimiter = new RateLimiter(
+                Map.of(RouteClass.OTHER, new RateLimiter.Budget(1, 1)), 100);
+        var pipeline = pipeline(rateLimiter);
+        int[] statuses = new int[3];
+        String[] addresses = {"203.0.113.7", "203.0.113.7", "203.0.113.8"};
+        HttpResponseBuilder limited = null;
+        for (int i = 0; i < 3; i++) {
+            var out = new CompletableFuture<HttpResponseBuilder>();
+            String address = addresses[i];
+            pipeline.submit("/nope", () -> {
+                var req = request("/nope");
+                req.setClientAddress(address);
+                return req;
+            }, into(out));
+            HttpResponseBuilder resp = out.get(1, TimeUnit.SECONDS);
+            statuses[i] = resp.getStatusCode();
+            if (i == 1) {
+                limited = resp;
+            }
+        }
+        Assert.assertEquals(404, statuses[0]);
+        Assert.assertEquals(429, statuses[1]);
+        // another address has its own bucket
+        Assert.assertEquals(404, statuses[2]);
+        Assert.assertEquals("60", limited.getHeaders().get("Retry-After"));
+    }
+
+    @Test
+    public void transactionHistoryStillStreamsWithSingleFlight() throws Exception {
+        var pipeline = pipeline(null, new SingleFlight());
+        var out = new CompletableFuture<HttpResponseBuilder>();
+        pipeline.submit("/getTransactions", () -> {
+            var req = request("/getTransactions");
+            // signed in already, as AuthFilter would have memoized it
+            var auth = new AuthFilter.AuthResult();
+            auth.isLoggedIn = true;
+            auth.userName = "sf-stream";
+            req.setAttribute("auth.result", auth);
+            return req;
+        }, into(out));
+
+        // the cursor is only opened when the body is written, so no Mongo is needed here
+        Assert.assertTrue(out.get(1, TimeUnit.SECONDS).isStreaming());
+    }
+
+    @Test
+    public void transactionHistoryStreamsUntaggedInHashMode() throws Exception {
+        var pipeline = pipeline(new ConcurrencyLimiter(4, 1, 4, 1000, 0.5), new ETags(true),
+                null, null);
+        var out = new CompletableFuture<HttpResponseBuilder>();
+        pipeline.submit("/getTransactions", () -> {
+            var req = request("/getTransactions");
+            var auth = new AuthFilter.AuthResult();
+            auth.isLoggedIn = true;
+            auth.userName = "etag-stream";
+            req.setAttribute("auth.result", auth);
+            return req;
+        }, into(out));
+
+        // hashing would have rendered the body, and opened the cursor, right here
+        HttpResponseBuilder resp = out.get(1, TimeUnit.SECONDS);
+        Assert.assertTrue(resp.isStreaming());
+        Assert.assertNull(resp.getHeaders().get("ETag"));
+    }
+
+    @Test
+    public void batchEntriesSpendTheirOwnBudgets() throws Exception {
+        var rateLimiter = new RateLimiter(
+                Map.of(RouteClass.OTHER, new RateLimiter.Budget(1, 2)), 100);
+        var pipeline = pipeline(rateLimiter);
+        var out = new CompletableFuture<HttpResponseBuilder>();
+        pipeline.submit("/batch", () -> {
+            var req = request("/batch");
+            req.setMethod("POST");
+            req.setClientAddress("203.0.113.10");
+            var auth = new AuthFilter.AuthResult();
+            auth.isLoggedIn = true;
+            auth.userName = "batch-budget";
+            req.setAttribute("auth.result", auth);
+            req.setBody("[{\"path\":\"/nope\"},{\"path\":\"/nope\"}]");
+            return req;
+        }, into(out));
+
+        // the batch takes one token, its first entry the other
+        HttpResponseBuilder resp = out.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(200, resp.getStatusCode());
+        String body = new String(resp.serializeBody(), StandardCharsets.UTF_8);
+        Assert.assertTrue(body, body.contains("\"status\":404"));
+        Assert.assertTrue(body, body.contains("\"status\":429"));
+    }
+
+    @Test
+    public void badSessionsCountAgainstTheAddress() throws Exception {
+        var rateLimiter = new RateLimiter(
+                Map.of(RouteClass.AUTH, new RateLimiter.Budget(1, 1)), 100);
+        var pipeline = pipeline(rateLimiter);
+        int[] statuses = new int[2];
+        for (int i = 0; i < 2; i++) {
+            var out = new CompletableFuture<HttpResponseBuilder>();
+            String cookie = "made-up-" + i;
+            pipeline.submit("/accounts/list", () -> {
+                var req = request("/accounts/list");
+                req.setClientAddress("203.0.113.9");
+                req.setCookieValue("auth", cookie);
+                // the session lookup found nothing
+                req.setAttribute("auth.result", new AuthFilter.AuthResult());
+                return req;
+            }, into(out));
+            statuses[i] = out.get(1, TimeUnit.SECONDS).getStatusCode();
+        }
+        // a fresh cookie does not buy a fresh bucket
+        Assert.assertEquals(401, statuses[0]);
+        Assert.assertEquals(429, statuses[1]);
+    }
+}
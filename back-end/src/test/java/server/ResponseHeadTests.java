@@ -0,0 +1,41 @@
+package server;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class ResponseHeadTests {
+
+    private static String text(ResponseHead head) {
+        return new String(head.toBytes(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void writesStatusLineFieldsAndBlankLine() {
+        var head = new ResponseHead(200, "OK")
+                .add("Content-Type", "application/json")
+                .add("Content-Length", 42)
+                .connection(true);
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n"
+                + "Content-Length: 42\r\nConnection: keep-alive\r\n\r\n", text(head));
+    }
+
+    @Test
+    public void growsPastItsInitialFields() {
+        var head = new ResponseHead(204, "No Content");
+        for (int i = 0; i < 40; i++) {
+            head.add("X-" + i, "v");
+        }
+        String text = text(head);
+        Assert.assertTrue(text.startsWith("HTTP/1.1 204 No Content\r\nX-0: v\r\n"));
+        Assert.assertTrue(text.endsWith("X-39: v\r\n\r\n"));
+    }
+
+    @Test
+    public void lineBreaksInValuesCannotStartNewFields() {
+        var head = new ResponseHead(302, "Found").add("Location", "/x\r\nSet-Cookie: a=b");
+        Assert.assertEquals("HTTP/1.1 302 Found\r\nLocation: /x??Set-Cookie: a=b\r\n\r\n",
+                text(head));
+    }
+}
@@ -0,0 +1,127 @@
+package server;
+
+import handler.UserChanges;
+import org.junit.Assert;
+import org.testng.annotations.Test;
+import request.ParsedRequest;
+import response.HttpResponseBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTests {
+
+    private static ParsedRequest get(String path, String query) {
+        var req = new ParsedRequest();
+        req.setMethod("GET");
+        req.setPath(path);
+        req.setRawQuery(query);
+        return req;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String body(HttpResponseBuilder resp) {
+        return new String(resp.serializeBody(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void concurrentIdenticalReadsShareOneRun() throws Exception {
+        var flights = new SingleFlight();
+        var runs = new AtomicInteger();
+        var release = new CountDownLatch(1);
+        String key = SingleFlight.key("sf-user", get("/accounts/list", "a=1"));
+
+        var first = CompletableFuture.supplyAsync(() -> flights.execute(key, () -> {
+            runs.incrementAndGet();
+            await(release);
+            return new HttpResponseBuilder().setStatus("200 OK").setBody("[1]")
+                    .setHeader("X-Test", "yes");
+        }));
+        while (flights.stats().get("running").equals(0)) {
+            Thread.sleep(1);
+        }
+        var second = CompletableFuture.supplyAsync(() -> flights.execute(key, () -> {
+            runs.incrementAndGet();
+            return new HttpResponseBuilder().setBody("[2]");
+        }));
+        Thread.sleep(50);
+        release.countDown();
+
+        HttpResponseBuilder a = first.get(1, TimeUnit.SECONDS);
+        HttpResponseBuilder b = second.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(1, runs.get());
+        Assert.assertEquals("[1]", body(a));
+        Assert.assertEquals("[1]", body(b));
+        Assert.assertEquals("yes", b.getHeaders().get("X-Test"));
+        // separate builders, so per-request headers stay per request
+        b.setHeader("ETag", "\"x\"");
+        Assert.assertNull(a.getHeaders().get("ETag"));
+        Assert.assertEquals(1L, flights.stats().get("coalesced"));
+        Assert.assertEquals(0, flights.stats().get("running"));
+    }
+
+    @Test
+    public void waiterRunsItselfWhenTheFirstRunFails() throws Exception {
+        var flights = new SingleFlight();
+        var release = new CountDownLatch(1);
+        var first = CompletableFuture.supplyAsync(() -> flights.execute("k", () -> {
+            await(release);
+            throw new IllegalStateException("boom");
+        }));
+        while (flights.stats().get("running").equals(0)) {
+            Thread.sleep(1);
+        }
+        var second = CompletableFuture.supplyAsync(() -> flights.execute("k",
+                () -> new HttpResponseBuilder().setBody("[2]")));
+        Thread.sleep(50);
+        release.countDown();
+
+        Assert.assertEquals("[2]", body(second.get(1, TimeUnit.SECONDS)));
+        Assert.assertTrue(first.handle((r, e) -> e != null).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void streamingBodiesAreNotShared() throws Exception {
+        var flights = new SingleFlight();
+        var release = new CountDownLatch(1);
+        var first = CompletableFuture.supplyAsync(() -> flights.execute("s", () -> {
+            await(release);
+            return new HttpResponseBuilder().setStreamingBody(writer -> writer.value(1));
+        }));
+        while (flights.stats().get("running").equals(0)) {
+            Thread.sleep(1);
+        }
+        var second = CompletableFuture.supplyAsync(() -> flights.execute("s",
+                () -> new HttpResponseBuilder().setBody("[2]")));
+        Thread.sleep(50);
+        release.countDown();
+
+        // the first one still streams; the waiter ran its own handler
+        Assert.assertTrue(first.get(1, TimeUnit.SECONDS).isStreaming());
+        Assert.assertEquals("[2]", body(second.get(1, TimeUnit.SECONDS)));
+        Assert.assertEquals(0L, flights.stats().get("coalesced"));
+    }
+
+    @Test
+    public void keySeparatesUsersQueriesAndDataVersions() {
+        String key = SingleFlight.key("sf-a", get("/transactions", "limit=5"));
+        Assert.assertEquals(key, SingleFlight.key("sf-a", get("/transactions", "limit=5")));
+        Assert.assertFalse(key.equals(SingleFlight.key("sf-b", get("/transactions", "limit=5"))));
+        Assert.assertFalse(key.equals(SingleFlight.key("sf-a", get("/transactions", "limit=6"))));
+        Assert.assertFalse(key.equals(SingleFlight.key("sf-a", get("/transactions", null))));
+
+        // a read after the user's write does not join one from before it
+        UserChanges.bump("sf-a");
+        Assert.assertFalse(key.equals(SingleFlight.key("sf-a", get("/transactions", "limit=5"))));
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class StaticFilesTests {
+
+    private static final String HTML = "text/html,application/xhtml+xml";
+
+    private static Path build() throws IOException {
+        Path root = Files.createTempDirectory("static-files");
+        Files.writeString(root.resolve("index.html"), "<html>app</html>");
+        Path js = Files.createDirectories(root.resolve("static/js"));
+        Files.writeString(js.resolve("main.1a2b3c4d.js"), "console.log('app')");
+        Files.writeString(js.resolve("main.1a2b3c4d.js.gz"), "gz");
+        Files.writeString(js.resolve("main.1a2b3c4d.js.br"), "br");
+        Files.writeString(root.resolve(".env"), "SECRET=1");
+        return root;
+    }
+
+    private static String text(ByteBuffer body) {
+        return StandardCharsets.UTF_8.decode(body).toString();
+    }
+
+    @Test
+    public void hashedAssetsAreImmutable() throws IOException {
+        var files = new StaticFiles(build(), true);
+        StaticFiles.Response resp = files.serve("GET", "/static/js/main.1a2b3c4d.js", "*/*",
+                null, null);
+        Assert.assertEquals(200, resp.status());
+        Assert.assertEquals("console.log('app')", text(resp.body()));
+        Assert.assertTrue(resp.headers().get("Cache-Control").contains("immutable"));
+        Assert.assertTrue(resp.headers().get("Content-Type").startsWith("text/javascript"));
+
+        StaticFiles.Response index = files.serve("GET", "/", HTML, null, null);
+        Assert.assertEquals("<html>app</html>", text(index.body()));
+        Assert.assertEquals("no-cache", index.headers().get("Cache-Control"));
+    }
+
+    @Test
+    public void precompressedVariantFollowsAcceptEncoding() throws IOException {
+        var files = new StaticFiles(build(), true);
+        String path = "/static/js/main.1a2b3c4d.js";
+
+        StaticFiles.Response br = files.serve("GET", path, "*/*", "gzip, deflate, br", null);
+        Assert.assertEquals("br", br.headers().get("Content-Encoding"));
+        Assert.assertEquals("br", text(br.body()));
+        Assert.assertEquals("Accept-Encoding", br.headers().get("Vary"));
+
+        StaticFiles.Response gz = files.serve("GET", path, "*/*", "gzip, br;q=0", null);
+        Assert.assertEquals("gzip", gz.headers().get("Content-Encoding"));
+        Assert.assertEquals("2", gz.headers().get("Content-Length"));
+
+        StaticFiles.Response plain = files.serve("GET", path, "*/*", "identity", null);
+        Assert.assertNull(plain.headers().get("Content-Encoding"));
+        Assert.assertFalse(plain.headers().get("ETag").equals(gz.headers().get("ETag")));
+    }
+
+    @Test
+    public void staleVariantIsIgnored() throws IOException {
+        Path root = build();
+        Path js = root.resolve("static/js/main.1a2b3c4d.js");
+        Files.setLastModifiedTime(js.resolveSibling("main.1a2b3c4d.js.br"),
+                FileTime.fromMillis(Files.getLastModifiedTime(js).toMillis() - 60_000));
+        var files = new StaticFiles(root, true);
+        StaticFiles.Response resp = files.serve("GET", "/static/js/main.1a2b3c4d.js", "*/*",
+                "br", null);
+        Assert.assertNull(resp.headers().get("Content-Encoding"));
+    }
+
+    @Test
+    public void revalidationAnswers304() throws IOException {
+        var files = new StaticFiles(build(), true);
+        String etag = files.serve("GET", "/index.html", HTML, null, null).headers().get("ETag");
+        StaticFiles.Response resp = files.serve("GET", "/index.html", HTML, null, etag);
+        Assert.assertEquals(304, resp.status());
+        Assert.assertNull(resp.body());
+    }
+
+    @Test
+    public void clientRoutesFallBackToIndex() throws IOException {
+        var files = new StaticFiles(build(), true);
+        Assert.assertEquals("<html>app</html>",
+                text(files.serve("GET", "/home", HTML, null, null).body()));
+        // not a page load, or a missing file: left to the API's 404
+        Assert.assertNull(files.serve("GET", "/home", "application/json", null, null));
+        Assert.assertNull(files.serve("GET", "/static/js/missing.js", HTML, null, null));
+        Assert.assertNull(new StaticFiles(build(), false).serve("GET", "/home", HTML, null,
+                null));
+    }
+
+    @Test
+    public void staysInsideTheRoot() throws IOException {
+        var files = new StaticFiles(build(), false);
+        Assert.assertNull(files.serve("GET", "/../../etc/passwd", "*/*", null, null));
+        Assert.assertNull(files.serve("GET", "//etc/passwd", "*/*", null, null));
+        Assert.assertNull(files.serve("GET", "/.env", "*/*", null, null));
+        Assert.assertNull(files.serve("GET", "/static/js/main.1a2b3c4d.js.gz", "*/*", null,
+                null));
+        Assert.assertNull(files.serve("POST", "/index.html", "*/*", null, null));
+    }
+
+    @Test
+    public void headHasNoBody() throws IOException {
+        var files = new StaticFiles(build(), false);
+        StaticFiles.Response resp = files.serve("HEAD", "/index.html", HTML, null, null);
+        Assert.assertEquals(200, resp.status());
+        Assert.assertNull(resp.body());
+        Assert.assertEquals("16", resp.headers().get("Content-Length"));
+    }
+}
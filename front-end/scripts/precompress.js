@@ -0,0 +1,29 @@
+// Writes .br and .gz copies of the text assets in build/ for the Java server to send
+// when the browser accepts them. Runs after `npm run build`.
+const fs = require('fs');
+const path = require('path');
+const zlib = require('zlib');
+
+const root = path.join(__dirname, '..', 'build');
+const compressible = /\.(html|js|mjs|css|json|map|svg|txt|webmanifest)$/;
+const minBytes = 1024;
+
+function walk(dir) {
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const file = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      walk(file);
+    } else if (compressible.test(entry.name)) {
+      const data = fs.readFileSync(file);
+      if (data.length < minBytes) {
+        continue;
+      }
+      fs.writeFileSync(file + '.gz', zlib.gzipSync(data, { level: 9 }));
+      fs.writeFileSync(file + '.br', zlib.brotliCompressSync(data, {
+        params: { [zlib.constants.BROTLI_PARAM_QUALITY]: 11 },
+      }));
+    }
+  }
+}
+
+walk(root);